@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Benchmarks
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision.benchmark;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.repository.XPersistentRepository;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
+import org.jboss.osgi.resolver.spi.AbstractEnvironment;
+import org.jboss.osgi.resolver.spi.AbstractResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.namespace.IdentityNamespace;
+
+/**
+ * Benchmarks {@link AbstractResourceProvisioner#findResources} on a {@link SyntheticRepository}.
+ *
+ * Throughput and latency percentiles are reported by the benchmark modes,
+ * the allocation rate by running with <code>-prof gc</code>.
+ * The result cache is disabled, so that every invocation runs the provisioning engine.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProvisionerBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int size;
+
+    @Param({ "10", "50" })
+    int depth;
+
+    @Param({ "1", "3" })
+    int fanout;
+
+    @Param({ "5" })
+    int chainLength;
+
+    private AbstractResourceProvisioner provisioner;
+    private XEnvironment environment;
+    private int segments;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        XPersistentRepository repository = SyntheticRepository.create(size, depth, fanout, chainLength);
+        provisioner = new AbstractResourceProvisioner(new AbstractResolver(), repository);
+        provisioner.getResultCache().setMaxSize(0);
+        environment = new AbstractEnvironment();
+        segments = SyntheticRepository.getSegmentCount(size, depth);
+    }
+
+    @Benchmark
+    public ProvisionResult findSegment() {
+        String root = SyntheticRepository.getSegmentRoot(nextSegment(), depth);
+        return provisioner.findResources(environment, getRequirements(root));
+    }
+
+    @Benchmark
+    public ProvisionResult findFeature() {
+        String feature = SyntheticRepository.getFeatureName(nextSegment());
+        return provisioner.findResources(environment, getRequirements(feature));
+    }
+
+    // Rotate through the segments, so that lookups are not served from a warm subset
+    private int nextSegment() {
+        next = (next + 1) % segments;
+        return next;
+    }
+
+    private Set<XRequirement> getRequirements(String name) {
+        return Collections.singleton(XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, name).getRequirement());
+    }
+}
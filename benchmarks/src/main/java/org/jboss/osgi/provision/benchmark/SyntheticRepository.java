@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Benchmarks
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision.benchmark;
+
+import org.jboss.osgi.provision.TrackingRepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.XPersistentRepository;
+import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
+import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.osgi.framework.namespace.IdentityNamespace;
+
+/**
+ * Builds a synthetic repository on {@link MemoryRepositoryStorage}.
+ *
+ * The resources are partitioned in segments of the given depth. Resource p of a segment
+ * requires the identities of the next fanout resources in the same segment, so that the
+ * segment root pulls in the whole segment. Every segment root is also reachable through
+ * a chain of abstract features.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+final class SyntheticRepository {
+
+    private SyntheticRepository() {
+    }
+
+    static XPersistentRepository create(int size, int depth, int fanout, int chainLength) {
+        XPersistentRepository repository = new AbstractPersistentRepository(new TrackingRepositoryStorage.Factory(new MemoryRepositoryStorage.Factory()));
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        for (int i = 0; i < size; i++) {
+            int segment = i / depth;
+            int position = i % depth;
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, getResourceName(i));
+            for (int k = 1; k <= fanout && position + k < depth && i + k < size; k++) {
+                builder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, getResourceName(i + k));
+            }
+            storage.addResource(builder.getResource());
+            if (position == 0) {
+                addFeatureChain(storage, segment, getResourceName(i), chainLength);
+            }
+        }
+        return repository;
+    }
+
+    static int getSegmentCount(int size, int depth) {
+        return (size + depth - 1) / depth;
+    }
+
+    static String getResourceName(int index) {
+        return "res" + index;
+    }
+
+    static String getSegmentRoot(int segment, int depth) {
+        return getResourceName(segment * depth);
+    }
+
+    static String getFeatureName(int segment) {
+        return getFeatureName(segment, 0);
+    }
+
+    private static String getFeatureName(int segment, int link) {
+        return "feature" + segment + "." + link;
+    }
+
+    private static void addFeatureChain(RepositoryStorage storage, int segment, String root, int chainLength) {
+        for (int link = 0; link < chainLength; link++) {
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, getFeatureName(segment, link)).getAttributes().put(XResource.CAPABILITY_TYPE_ATTRIBUTE, XResource.TYPE_ABSTRACT);
+            String next = link + 1 < chainLength ? getFeatureName(segment, link + 1) : root;
+            builder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, next);
+            storage.addResource(builder.getResource());
+        }
+    }
+}
@@ -19,20 +19,32 @@
  */
 package org.jboss.osgi.provision.internal;
 
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.ProvisionMetrics;
 import org.jboss.osgi.provision.XResourceProvisioner;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.resolver.XEnvironment;
 import org.jboss.osgi.resolver.XResolver;
 import org.jboss.osgi.resolver.XResource;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.util.tracker.ServiceTracker;
 
 /**
@@ -43,9 +55,15 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class ResourceProvisionerActivator implements BundleActivator {
 
+    static final String METRICS_OBJECT_NAME = "jboss.osgi:service=provision,type=metrics";
+
     private ServiceTracker<XResolver, XResolver> resolverTracker;
     private ServiceTracker<XRepository, XRepository> repositoryTracker;
     private List<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+    private List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
+    private List<BundleListener> bundleListeners = new ArrayList<BundleListener>();
+    private List<ServiceReference<?>> serviceRefs = new ArrayList<ServiceReference<?>>();
+    private List<AbstractResourceProvisioner> provisioners = new ArrayList<AbstractResourceProvisioner>();
 
     @Override
     public void start(final BundleContext context) throws Exception {
@@ -77,17 +95,78 @@ public class ResourceProvisionerActivator implements BundleActivator {
             resolverTracker.close();
         if (repositoryTracker != null)
             repositoryTracker.close();
+        for (BundleListener listener : bundleListeners) {
+            context.removeBundleListener(listener);
+        }
+        for (ServiceReference<?> sref : serviceRefs) {
+            context.ungetService(sref);
+        }
         for (ServiceRegistration<?> reg : registrations) {
             reg.unregister();
         }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName oname : mbeanNames) {
+            if (server.isRegistered(oname)) {
+                server.unregisterMBean(oname);
+            }
+        }
+        for (AbstractResourceProvisioner provisioner : provisioners) {
+            provisioner.close();
+        }
     }
 
     private void createProvisionService(final BundleContext context, final XResolver resolver, final XRepository repository) {
         if (resolver != null && repository != null) {
-            XResourceProvisioner provisioner = new AbstractResourceProvisioner(resolver, repository);
+            AbstractResourceProvisioner provisioner = new AbstractResourceProvisioner(resolver, repository);
+            provisioners.add(provisioner);
+            trackEnvironment(context, provisioner);
             Dictionary<String, String> props = new Hashtable<String, String>();
             props.put("type", XResource.TYPE_BUNDLE);
             registrations.add(context.registerService(XResourceProvisioner.class, provisioner, props));
+            registrations.add(context.registerService(ProvisionMetrics.class, provisioner.getMetrics(), props));
+            registerMetricsMBean(provisioner.getMetrics());
+        }
+    }
+
+    // Bundle events that install or uninstall resources modify the framework environment
+    private void trackEnvironment(BundleContext context, final AbstractResourceProvisioner provisioner) {
+        ServiceReference<XEnvironment> sref = context.getServiceReference(XEnvironment.class);
+        final XEnvironment env = sref != null ? context.getService(sref) : null;
+        if (env != null) {
+            serviceRefs.add(sref);
+            provisioner.trackEnvironment(env);
+            BundleListener listener = new SynchronousBundleListener() {
+                @Override
+                public void bundleChanged(BundleEvent event) {
+                    switch (event.getType()) {
+                        case BundleEvent.INSTALLED:
+                        case BundleEvent.UNINSTALLED:
+                        case BundleEvent.RESOLVED:
+                        case BundleEvent.UNRESOLVED:
+                            provisioner.environmentModified(env);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            };
+            context.addBundleListener(listener);
+            bundleListeners.add(listener);
+        }
+    }
+
+    // The metrics of the most recent provisioner are exposed
+    private void registerMetricsMBean(ProvisionMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName oname = new ObjectName(METRICS_OBJECT_NAME);
+            if (server.isRegistered(oname)) {
+                server.unregisterMBean(oname);
+            }
+            server.registerMBean(metrics, oname);
+            mbeanNames.add(oname);
+        } catch (JMException ex) {
+            throw MESSAGES.cannotRegisterMetrics(ex, METRICS_OBJECT_NAME);
         }
     }
 }
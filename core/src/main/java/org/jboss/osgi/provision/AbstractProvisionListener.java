@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.Set;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Bundle;
+
+/**
+ * A {@link ProvisionListener} that ignores all events.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public abstract class AbstractProvisionListener implements ProvisionListener {
+
+    @Override
+    public void provisionStarted(XEnvironment env, Set<XRequirement> reqs) {
+    }
+
+    @Override
+    public void provisionFinished(Set<XRequirement> reqs, ProvisionResult result, long nanos) {
+    }
+
+    @Override
+    public void roundStarted(int round, int frontier) {
+    }
+
+    @Override
+    public void roundFinished(int round, int frontier, boolean resolverCalled, long nanos) {
+    }
+
+    @Override
+    public void repositoryLookupStarted(XRequirement req) {
+    }
+
+    @Override
+    public void repositoryLookupFinished(XRequirement req, int providers, long nanos) {
+    }
+
+    @Override
+    public void delegateExpanded(XResource resource, XResource delegate) {
+    }
+
+    @Override
+    public void bundleInstalling(XResource resource) {
+    }
+
+    @Override
+    public void bundleInstalled(XResource resource, Bundle bundle, long nanos) {
+    }
+
+    @Override
+    public void bundleStarting(XResource resource, Bundle bundle) {
+    }
+
+    @Override
+    public void bundleStarted(XResource resource, Bundle bundle, long nanos) {
+    }
+}
@@ -23,20 +23,40 @@ import static org.jboss.osgi.provision.ProvisionLogger.LOGGER;
 import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
 import static org.osgi.framework.namespace.PackageNamespace.RESOLUTION_DYNAMIC;
 import static org.osgi.framework.namespace.AbstractWiringNamespace.RESOLUTION_OPTIONAL;
+import static org.osgi.resource.Namespace.EFFECTIVE_RESOLVE;
+import static org.osgi.resource.Namespace.REQUIREMENT_EFFECTIVE_DIRECTIVE;
 import static org.osgi.resource.Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.jboss.osgi.provision.FeatureClosureCache.Closure;
+import org.jboss.osgi.provision.ProvisionMetrics.Phase;
+import org.jboss.osgi.provision.ProvisionResult.Status;
+import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XEnvironment;
@@ -46,8 +66,8 @@ import org.jboss.osgi.resolver.XResolveContext;
 import org.jboss.osgi.resolver.XResolver;
 import org.jboss.osgi.resolver.XResource;
 import org.jboss.osgi.resolver.XResource.State;
-import org.jboss.osgi.resolver.spi.AbstractEnvironment;
 import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
@@ -57,17 +77,354 @@ import org.osgi.service.resolver.ResolutionException;
 /**
  * The Provision Service
  *
+ * One instance can be shared by concurrent callers. The state that is shared between calls
+ * (caches, repository index, metrics and listeners) does not lock on the lookup path. The
+ * environment, repository and resolver must support concurrent reads.
+ *
  * @author thomas.diesler@jboss.com
  * @since 06-May-2013
  */
 public class AbstractResourceProvisioner implements XResourceProvisioner {
 
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 64;
+
+    /**
+     * How the result of {@link AbstractResourceProvisioner#findResources(XEnvironment, Set)} is verified
+     */
+    public enum VerificationMode {
+        /** Always resolve the result resources */
+        FULL,
+        /** Reuse the wiring of the last round, resolve the result resources if that round failed */
+        REUSE,
+        /** Resolve the result resources on the verification executor */
+        ASYNCHRONOUS,
+        /** Do not verify the result */
+        SKIP
+    }
+
+    private static final Comparator<Capability> HIGHEST_VERSION_FIRST = new Comparator<Capability>() {
+        @Override
+        public int compare(Capability cap1, Capability cap2) {
+            XIdentityCapability icap1 = ((XResource) cap1.getResource()).getIdentityCapability();
+            XIdentityCapability icap2 = ((XResource) cap2.getResource()).getIdentityCapability();
+            Version v1 = icap1.getVersion();
+            Version v2 = icap2.getVersion();
+            return v2.compareTo(v1);
+        }
+    };
+
     private final XResolver resolver;
     private final XRepository repository;
+    private final TrackingRepositoryStorage storage;
+    private final ProvisionResultCache resultCache;
+    private final ProviderLookupCache providerCache;
+    private final NegativeLookupCache negativeCache;
+    private final DelegateProviderCache delegateCache;
+    private final FeatureClosureCache closureCache;
+    private final RepositoryIndex repositoryIndex;
+    private volatile boolean skipDoomedRounds = true;
+    private volatile Executor lookupExecutor;
+    private volatile boolean batchedLookup;
+    private volatile VerificationMode verificationMode = VerificationMode.REUSE;
+    private volatile Executor verificationExecutor;
+    private volatile Executor asyncExecutor;
+    private volatile Executor batchExecutor;
+    private final ProvisionMetrics metrics = new ProvisionMetrics();
+    private final ProvisionListeners listeners = new ProvisionListeners();
+    private final ConcurrentMap<XEnvironment, AtomicLong> environments = new ConcurrentHashMap<XEnvironment, AtomicLong>();
+    private final AtomicLong environmentClock = new AtomicLong();
+    private final ConcurrentMap<ProvisionResultCache.Key, InflightRequest> inflightRequests = new ConcurrentHashMap<ProvisionResultCache.Key, InflightRequest>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile boolean coalescing = true;
+    private final AtomicLong roundCount = new AtomicLong();
+    private final AtomicLong frontierCount = new AtomicLong();
 
     public AbstractResourceProvisioner(XResolver resolver, XRepository repository) {
         this.resolver = resolver;
         this.repository = repository;
+        this.resultCache = new ProvisionResultCache(DEFAULT_RESULT_CACHE_SIZE);
+        this.providerCache = new ProviderLookupCache();
+        this.negativeCache = new NegativeLookupCache();
+        this.delegateCache = new DelegateProviderCache();
+        this.closureCache = new FeatureClosureCache();
+
+        // Results can only be cached if we see the modifications of the repository
+        storage = createTrackingStorage(repository);
+        if (storage != null) {
+            storage.addListener(resultCache);
+            storage.addListener(providerCache);
+            storage.addListener(negativeCache);
+            storage.addListener(delegateCache);
+            storage.addListener(closureCache);
+            repositoryIndex = RepositoryIndex.create(storage);
+        } else {
+            repositoryIndex = null;
+        }
+    }
+
+    /**
+     * Release the resources of this provisioner.
+     *
+     * The caches and the repository index are unregistered from the repository storage,
+     * which may outlive this provisioner, and the tracked environments are forgotten.
+     */
+    public void close() {
+        if (storage != null) {
+            storage.removeListener(resultCache);
+            storage.removeListener(providerCache);
+            storage.removeListener(negativeCache);
+            storage.removeListener(delegateCache);
+            storage.removeListener(closureCache);
+            storage.removeListener(repositoryIndex);
+        }
+        environments.clear();
+    }
+
+    /**
+     * Get the cache of provision results.
+     *
+     * The cache is only used for a tracked environment and when the modifications of the repository storage can be tracked.
+     */
+    public ProvisionResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Get the cache of repository providers that is shared between calls.
+     *
+     * The cache is disabled by default and is only used when the modifications of the repository storage can be tracked.
+     */
+    public ProviderLookupCache getProviderCache() {
+        return providerCache;
+    }
+
+    /**
+     * Get the cache of requirements without a repository provider that is shared between calls.
+     *
+     * The cache is only used when the modifications of the repository storage can be tracked.
+     */
+    public NegativeLookupCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Get the cache of the maven/module delegate providers of abstract resources that is shared between calls.
+     *
+     * The cache is only used when the modifications of the repository storage can be tracked.
+     */
+    public DelegateProviderCache getDelegateCache() {
+        return delegateCache;
+    }
+
+    /**
+     * Get the cache of the materialized transitive closures of abstract features that is shared between calls.
+     *
+     * The cache is only used when the modifications of the repository storage can be tracked.
+     */
+    public FeatureClosureCache getClosureCache() {
+        return closureCache;
+    }
+
+    /**
+     * Get the index over the repository storage or null if the modifications of the storage cannot be tracked.
+     */
+    public RepositoryIndex getRepositoryIndex() {
+        return repositoryIndex;
+    }
+
+    /**
+     * Get the storage that tracks the modifications of the repository or null if they cannot be tracked.
+     * Resources that are added through this storage are seen by the caches and the index immediately.
+     */
+    public TrackingRepositoryStorage getTrackingStorage() {
+        return storage;
+    }
+
+    /**
+     * True if a resolve round is only attempted when every mandatory unsatisfied requirement
+     * has a provider in the environment. Rounds that are known to fail are skipped.
+     */
+    public boolean isSkipDoomedRounds() {
+        return skipDoomedRounds;
+    }
+
+    /**
+     * Enable or disable skipping of doomed resolve rounds.
+     *
+     * When enabled the resolver is only called for rounds that can succeed,
+     * otherwise the resolver runs for every round of {@link #findResources(XEnvironment, Set)}.
+     */
+    public void setSkipDoomedRounds(boolean skipDoomedRounds) {
+        this.skipDoomedRounds = skipDoomedRounds;
+    }
+
+    /**
+     * Get the executor that is used for concurrent repository lookups or null if lookups are sequential.
+     */
+    public Executor getLookupExecutor() {
+        return lookupExecutor;
+    }
+
+    /**
+     * Set the executor that is used to find the repository providers of a round concurrently.
+     *
+     * This is useful for repositories with slow lookups. A fork-join pool or an executor that
+     * creates a thread per task are good choices. The result does not depend on the completion
+     * order of the lookups. A null executor disables concurrent lookups.
+     */
+    public void setLookupExecutor(Executor lookupExecutor) {
+        this.lookupExecutor = lookupExecutor;
+    }
+
+    /**
+     * True if the repository lookups of a round are sent to the repository as a single query.
+     */
+    public boolean isBatchedLookup() {
+        return batchedLookup;
+    }
+
+    /**
+     * Enable or disable batched repository lookups.
+     *
+     * With batched lookups the requirements of a round that cannot be answered from the caches
+     * or the index are passed to {@link XRepository#findProviders(Collection)} together, followed
+     * by a second query for the maven/module delegates of abstract providers. This takes precedence
+     * over the lookup executor.
+     */
+    public void setBatchedLookup(boolean batchedLookup) {
+        this.batchedLookup = batchedLookup;
+    }
+
+    public VerificationMode getVerificationMode() {
+        return verificationMode;
+    }
+
+    /**
+     * Set the mode that is used to verify that the result resources can be resolved.
+     *
+     * The verified wiring is available from {@link ProvisionResult#getWiring()}.
+     */
+    public void setVerificationMode(VerificationMode verificationMode) {
+        if (verificationMode == null)
+            throw MESSAGES.illegalArgumentNull("verificationMode");
+        this.verificationMode = verificationMode;
+    }
+
+    public Executor getVerificationExecutor() {
+        return verificationExecutor;
+    }
+
+    /**
+     * Set the executor for {@link VerificationMode#ASYNCHRONOUS}. Without an executor the result is verified synchronously.
+     */
+    public void setVerificationExecutor(Executor verificationExecutor) {
+        this.verificationExecutor = verificationExecutor;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Set the executor for {@link #findResourcesAsync(XEnvironment, Set, long, TimeUnit)}.
+     * Without an executor every asynchronous call runs in a new daemon thread.
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public Executor getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * Set the executor that runs the requests of {@link #findResources(List)} in parallel.
+     * Without an executor the requests run one after another.
+     */
+    public void setBatchExecutor(Executor batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * Get the per-phase timers and counters of this provisioner.
+     */
+    public ProvisionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * True if concurrent {@link #findResources(XEnvironment, Set)} calls for an equal request share one computation.
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Enable or disable the coalescing of concurrent requests.
+     *
+     * Requests are equal if their requirements are structurally equal and neither the environment
+     * nor the repository has changed. Coalescing needs a tracked environment and a repository storage
+     * whose modifications can be tracked.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * The number of calls that received the result of an in-flight call
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Track the modifications of the given environment.
+     *
+     * Results are only cached and concurrent requests are only coalesced for a tracked environment.
+     * The owner of the environment must call {@link #environmentModified(XEnvironment)} whenever
+     * it installs or uninstalls resources.
+     */
+    public void trackEnvironment(XEnvironment env) {
+        if (env == null)
+            throw MESSAGES.illegalArgumentNull("env");
+        environments.putIfAbsent(env, new AtomicLong(environmentClock.incrementAndGet()));
+    }
+
+    public void untrackEnvironment(XEnvironment env) {
+        environments.remove(env);
+    }
+
+    /**
+     * Tell the provisioner that resources were installed into or uninstalled from a tracked environment.
+     */
+    public void environmentModified(XEnvironment env) {
+        // Generations are never reused, not even when an environment is tracked again
+        AtomicLong generation = env != null ? environments.get(env) : null;
+        if (generation != null) {
+            generation.set(environmentClock.incrementAndGet());
+        }
+    }
+
+    public void addListener(ProvisionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ProvisionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The total number of rounds over all calls to {@link #findResources(XEnvironment, Set)}
+     */
+    public long getRoundCount() {
+        return roundCount.get();
+    }
+
+    /**
+     * The total number of requirements that entered a round frontier over all calls to {@link #findResources(XEnvironment, Set)}
+     */
+    public long getFrontierCount() {
+        return frontierCount.get();
     }
 
     @Override
@@ -87,24 +444,450 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
         if (reqs == null)
             throw MESSAGES.illegalArgumentNull("reqs");
 
+        synchronizeStorage();
+        return findResources(env, reqs, null);
+    }
+
+    @Override
+    public final List<ProvisionResult> findResources(List<ProvisionRequest> requests) {
+        if (requests == null)
+            throw MESSAGES.illegalArgumentNull("requests");
+
+        LOGGER.debugf("START findResources batch: %s", requests);
+        synchronizeStorage();
+
+        // Repository lookups do not depend on the environment and are shared by the requests
+        final Map<RequirementKey, XCapability> lookups = Collections.synchronizedMap(new HashMap<RequirementKey, XCapability>());
+        List<FutureTask<ProvisionResult>> tasks = new ArrayList<FutureTask<ProvisionResult>>();
+        for (final ProvisionRequest request : requests) {
+            tasks.add(new FutureTask<ProvisionResult>(new Callable<ProvisionResult>() {
+                @Override
+                public ProvisionResult call() throws Exception {
+                    return findResources(request.getEnvironment(), request.getRequirements(), lookups);
+                }
+            }));
+        }
+
+        Executor executor = batchExecutor;
+        for (FutureTask<ProvisionResult> task : tasks) {
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                task.run();
+            }
+        }
+
+        List<ProvisionResult> results = new ArrayList<ProvisionResult>();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    results.add(tasks.get(i).get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw MESSAGES.cannotProvision(cause, requests.get(i).getRequirements());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw MESSAGES.cannotProvision(ex, requests.get(results.size()).getRequirements());
+        } finally {
+            for (FutureTask<ProvisionResult> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        LOGGER.debugf("END findResources batch");
+        return results;
+    }
+
+    private ProvisionResult findResources(XEnvironment env, Set<XRequirement> reqs, Map<RequirementKey, XCapability> lookups) {
+        ProvisionResultCache.Key requestKey = getRequestKey(env, reqs);
+        if (!coalescing || requestKey == null)
+            return findResources(env, reqs, requestKey, null, 0, lookups);
+
+        return findResourcesCoalesced(env, reqs, requestKey, lookups);
+    }
+
+    /**
+     * Share the result of an in-flight call for an equal request, or become the in-flight call.
+     */
+    private ProvisionResult findResourcesCoalesced(final XEnvironment env, final Set<XRequirement> reqs, final ProvisionResultCache.Key requestKey,
+            final Map<RequirementKey, XCapability> lookups) {
+        InflightRequest request = new InflightRequest(reqs, new Callable<ProvisionResult>() {
+            @Override
+            public ProvisionResult call() throws Exception {
+                return findResources(env, reqs, requestKey, null, 0, lookups);
+            }
+        });
+        InflightRequest inflight = inflightRequests.putIfAbsent(requestKey, request);
+        if (inflight == null) {
+            try {
+                request.run();
+            } finally {
+                inflightRequests.remove(requestKey, request);
+            }
+            return request.getResult();
+        }
+        LOGGER.debugf("Coalesced with in-flight request: %s", reqs);
+        coalescedCount.incrementAndGet();
+        return ProvisionResultCache.remap(inflight.getResult(), inflight.reqs, reqs);
+    }
+
+    @Override
+    public final Future<ProvisionResult> findResourcesAsync(XEnvironment env, Set<XRequirement> reqs) {
+        return findResourcesAsync(env, reqs, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public final Future<ProvisionResult> findResourcesAsync(final XEnvironment env, final Set<XRequirement> reqs, long timeout, TimeUnit unit) {
+        if (env == null)
+            throw MESSAGES.illegalArgumentNull("env");
+        if (reqs == null)
+            throw MESSAGES.illegalArgumentNull("reqs");
+        if (unit == null)
+            throw MESSAGES.illegalArgumentNull("unit");
+
+        final long deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        final AtomicReference<Future<?>> control = new AtomicReference<Future<?>>();
+        FutureTask<ProvisionResult> task = new FutureTask<ProvisionResult>(new Callable<ProvisionResult>() {
+            @Override
+            public ProvisionResult call() throws Exception {
+                synchronizeStorage();
+                return findResources(env, reqs, getRequestKey(env, reqs), control.get(), deadline, null);
+            }
+        });
+        control.set(task);
+
+        Executor executor = asyncExecutor;
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            Thread thread = new Thread(task, "ResourceProvisioner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return task;
+    }
+
+    @Override
+    public final ProvisionDelta findResourcesDelta(XEnvironment env, ProvisionResult previous, Set<XRequirement> added, Set<XRequirement> removed) {
+        if (env == null)
+            throw MESSAGES.illegalArgumentNull("env");
+        if (previous == null)
+            throw MESSAGES.illegalArgumentNull("previous");
+        if (added == null)
+            throw MESSAGES.illegalArgumentNull("added");
+        if (removed == null)
+            throw MESSAGES.illegalArgumentNull("removed");
+
+        LOGGER.debugf("START findResourcesDelta: added %s, removed %s", added, removed);
+        synchronizeStorage();
+        long start = System.nanoTime();
+
+        // The previous requests that are retained, removed reqs are matched structurally
+        Set<RequirementKey> removedKeys = new HashSet<RequirementKey>();
+        for (XRequirement req : removed) {
+            removedKeys.add(new RequirementKey(req));
+        }
+        Set<XRequirement> retained = new LinkedHashSet<XRequirement>();
+        for (XRequirement req : getRequests(previous)) {
+            if (!removedKeys.contains(new RequirementKey(req))) {
+                retained.add(req);
+            }
+        }
+        Set<XRequirement> reqs = new LinkedHashSet<XRequirement>(retained);
+        reqs.addAll(added);
+        listeners.provisionStarted(env, reqs);
+        ProvisionDelta delta = null;
+        try {
+            delta = findResourcesDelta(env, previous, reqs, retained, added);
+            return delta;
+        } finally {
+            finished(reqs, delta != null ? delta.getResult() : null, start);
+        }
+    }
+
+    private ProvisionDelta findResourcesDelta(XEnvironment env, ProvisionResult previous, Set<XRequirement> reqs, Set<XRequirement> retained, Set<XRequirement> added) {
+
+        // The previous resources that are still needed by the retained requests
+        List<XResource> previousProvisioned = getProvisioned(previous);
+        Map<XRequirement, Set<XResource>> previousFor = getProvisionedFor(previous);
+        Set<XResource> needed = getReachableResources(previous, previousProvisioned, previousFor, retained);
+
+        // Previously unsatisfied reqs that are still needed are looked up again, together with the added reqs
+        Set<XRequirement> unsatisfied = new LinkedHashSet<XRequirement>();
+        for (XRequirement req : previous.getUnsatisfiedRequirements()) {
+            if (retained.contains(req) || needed.contains(req.getResource())) {
+                unsatisfied.add(req);
+            }
+        }
+        unsatisfied.addAll(added);
+
+        long cloneStart = System.nanoTime();
+        XEnvironment envclone = cloneEnvironment(env);
+        metrics.record(Phase.CLONE_ENVIRONMENT, System.nanoTime() - cloneStart);
+        ProvisionContext context = new ProvisionContext(envclone, unsatisfied);
+
+        // Reuse the mapping and the provisioning of the needed resources
+        for (Entry<XRequirement, XResource> entry : previous.getRequirementMapping().entrySet()) {
+            XRequirement req = entry.getKey();
+            if (retained.contains(req) || needed.contains(req.getResource())) {
+                context.getMapping().put(req, entry.getValue());
+            }
+        }
+        for (Entry<XRequirement, Set<XResource>> entry : previousFor.entrySet()) {
+            XRequirement req = entry.getKey();
+            if (retained.contains(req) || needed.contains(req.getResource())) {
+                for (XResource res : entry.getValue()) {
+                    context.addProvisioned(req, res);
+                }
+            }
+        }
+        Set<XResource> installed = new HashSet<XResource>();
+        Iterator<XResource> itenv = env.getResources(null);
+        while (itenv.hasNext()) {
+            installed.add(itenv.next());
+        }
+        for (XResource res : previousProvisioned) {
+            if (needed.contains(res) && !installed.contains(res)) {
+                envclone.installResources(res);
+                context.addResource(res);
+            }
+        }
+        for (XRequirement req : added) {
+            XResource res = req.getResource();
+            if (res.getState() != State.INSTALLED && !context.isMandatory(res)) {
+                envclone.installResources(res);
+                context.addUnresolved(res);
+            }
+        }
+
+        // Only the added and the previously unsatisfied reqs are looked up
+        findResources(context);
+
+        // Previous resources that the new walk uses again are kept as well
+        Set<Resource> kept = new HashSet<Resource>(needed);
+        kept.addAll(getUsedResources(context));
+
+        // The kept previous resources come first, followed by the added ones
+        List<XResource> provisioned = new ArrayList<XResource>();
+        List<XResource> resources = new ArrayList<XResource>();
+        List<XResource> addedResources = new ArrayList<XResource>();
+        for (XResource res : previousProvisioned) {
+            if (kept.contains(res)) {
+                provisioned.add(res);
+                if (!res.isAbstract()) {
+                    resources.add(res);
+                }
+            }
+        }
+        Set<XResource> previousResources = new HashSet<XResource>(previousProvisioned);
+        for (XResource res : context.getResources()) {
+            if (!previousResources.contains(res)) {
+                provisioned.add(res);
+                if (!res.isAbstract()) {
+                    resources.add(res);
+                    addedResources.add(res);
+                }
+            }
+        }
+        List<XResource> removedResources = new ArrayList<XResource>();
+        for (XResource res : previous.getResources()) {
+            if (!kept.contains(res)) {
+                removedResources.add(res);
+            }
+        }
+
+        AbstractProvisionResult result = new AbstractProvisionResult(context.getMapping(), context.getUnsatisfied(), resources);
+        result.setProvisioning(reqs, provisioned, context.getProvisioned());
+        LOGGER.debugf("END findResourcesDelta");
+        LOGGER.debugf("  added: %s", addedResources);
+        LOGGER.debugf("  removed: %s", removedResources);
+
+        metrics.addCall(addedResources.size(), result.getUnsatisfiedRequirements().size());
+        verifyResult(context, result);
+
+        return new AbstractProvisionDelta(result, addedResources, removedResources);
+    }
+
+    /**
+     * The resources that the walk of the given context installed, mapped, provisioned or wired.
+     */
+    private Set<Resource> getUsedResources(ProvisionContext context) {
+        Set<Resource> used = new HashSet<Resource>(context.getResources());
+        used.addAll(context.getMapping().values());
+        for (Set<XResource> resources : context.getProvisioned().values()) {
+            used.addAll(resources);
+        }
+        Map<Resource, List<Wire>> wiring = context.getWiring();
+        if (wiring != null) {
+            for (Entry<Resource, List<Wire>> entry : wiring.entrySet()) {
+                used.add(entry.getKey());
+                for (Wire wire : entry.getValue()) {
+                    used.add(wire.getProvider());
+                }
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Walk the previous result from the retained requests. A requirement leads to the resources that were
+     * provisioned for it, to its mapped and wired providers and otherwise to all previous resources that match it.
+     */
+    private Set<XResource> getReachableResources(ProvisionResult previous, List<XResource> provisioned, Map<XRequirement, Set<XResource>> provisionedFor, Set<XRequirement> retained) {
+        Set<XResource> candidates = new HashSet<XResource>(provisioned);
+        Map<Requirement, Set<XResource>> wired = new HashMap<Requirement, Set<XResource>>();
+        Map<Resource, List<Wire>> wiring = previous.getWiring();
+        if (wiring != null) {
+            for (List<Wire> wires : wiring.values()) {
+                for (Wire wire : wires) {
+                    Set<XResource> providers = wired.get(wire.getRequirement());
+                    if (providers == null) {
+                        providers = new HashSet<XResource>();
+                        wired.put(wire.getRequirement(), providers);
+                    }
+                    providers.add((XResource) wire.getProvider());
+                }
+            }
+        }
+
+        Set<XResource> needed = new HashSet<XResource>();
+        Deque<XRequirement> worklist = new ArrayDeque<XRequirement>(retained);
+        Map<String, List<Capability>> capabilities = null;
+        while (!worklist.isEmpty()) {
+            XRequirement req = worklist.pop();
+            Set<XResource> providers = new LinkedHashSet<XResource>();
+            if (provisionedFor.get(req) != null) {
+                providers.addAll(provisionedFor.get(req));
+            }
+            if (previous.getRequirementMapping().get(req) != null) {
+                providers.add(previous.getRequirementMapping().get(req));
+            }
+            if (wired.get(req) != null) {
+                providers.addAll(wired.get(req));
+            }
+            providers.retainAll(candidates);
+
+            // Without a recorded provider any matching previous resource is needed
+            if (providers.isEmpty()) {
+                if (capabilities == null) {
+                    capabilities = new HashMap<String, List<Capability>>();
+                    for (XResource res : provisioned) {
+                        for (Capability cap : res.getCapabilities(null)) {
+                            List<Capability> caps = capabilities.get(cap.getNamespace());
+                            if (caps == null) {
+                                caps = new ArrayList<Capability>();
+                                capabilities.put(cap.getNamespace(), caps);
+                            }
+                            caps.add(cap);
+                        }
+                    }
+                }
+                List<Capability> caps = capabilities.get(req.getNamespace());
+                if (caps != null) {
+                    for (Capability cap : caps) {
+                        if (req.matches(cap)) {
+                            providers.add((XResource) cap.getResource());
+                        }
+                    }
+                }
+            }
+
+            for (XResource res : providers) {
+                if (needed.add(res)) {
+                    worklist.addAll(getRequirements(res, null));
+                }
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * The requested requirements of a result. For a result that did not record them, these are
+     * the mapped and unsatisfied requirements of resources that are not part of the result.
+     */
+    private Set<XRequirement> getRequests(ProvisionResult result) {
+        Set<XRequirement> requests = result instanceof AbstractProvisionResult ? ((AbstractProvisionResult) result).getRequests() : null;
+        if (requests == null) {
+            Set<XResource> resources = new HashSet<XResource>(result.getResources());
+            requests = new LinkedHashSet<XRequirement>();
+            for (XRequirement req : result.getRequirementMapping().keySet()) {
+                if (!resources.contains(req.getResource())) {
+                    requests.add(req);
+                }
+            }
+            for (XRequirement req : result.getUnsatisfiedRequirements()) {
+                if (!resources.contains(req.getResource())) {
+                    requests.add(req);
+                }
+            }
+        }
+        return requests;
+    }
+
+    private List<XResource> getProvisioned(ProvisionResult result) {
+        List<XResource> provisioned = result instanceof AbstractProvisionResult ? ((AbstractProvisionResult) result).getProvisioned() : null;
+        return provisioned != null ? provisioned : result.getResources();
+    }
+
+    private Map<XRequirement, Set<XResource>> getProvisionedFor(ProvisionResult result) {
+        Map<XRequirement, Set<XResource>> provisionedFor = result instanceof AbstractProvisionResult ? ((AbstractProvisionResult) result).getProvisionedFor() : null;
+        return provisionedFor != null ? provisionedFor : Collections.<XRequirement, Set<XResource>> emptyMap();
+    }
+
+    /**
+     * @param lookups the repository lookups shared by the requests of a batch or null
+     */
+    private ProvisionResult findResources(XEnvironment env, Set<XRequirement> reqs, ProvisionResultCache.Key requestKey, Future<?> control, long deadline,
+            Map<RequirementKey, XCapability> lookups) {
+
         LOGGER.debugf("START findResources: %s", reqs);
+        long start = System.nanoTime();
+        listeners.provisionStarted(env, reqs);
+        ProvisionResult result = null;
+        try {
+            result = provision(env, reqs, requestKey, control, deadline, lookups);
+            return result;
+        } finally {
+            finished(reqs, result, start);
+        }
+    }
+
+    private ProvisionResult provision(XEnvironment env, Set<XRequirement> reqs, ProvisionResultCache.Key requestKey, Future<?> control, long deadline,
+            Map<RequirementKey, XCapability> lookups) {
+
+        // Return a cached result if neither the environment nor the repository has changed
+        ProvisionResultCache.Key cacheKey = resultCache.isEnabled() ? requestKey : null;
+        if (cacheKey != null) {
+            ProvisionResult cached = resultCache.get(cacheKey, reqs);
+            if (cached != null) {
+                LOGGER.debugf("END findResources (cached)");
+                metrics.addCall(cached.getResources().size(), cached.getUnsatisfiedRequirements().size());
+                return cached;
+            }
+        }
 
         // Install the unresolved resources into the cloned environment
-        List<XResource> unresolved = new ArrayList<XResource>();
+        long cloneStart = System.nanoTime();
         XEnvironment envclone = cloneEnvironment(env);
+        metrics.record(Phase.CLONE_ENVIRONMENT, System.nanoTime() - cloneStart);
+        ProvisionContext context = new ProvisionContext(envclone, reqs, control, deadline, lookups);
         for (XRequirement req : reqs) {
             XResource res = req.getResource();
             if (res.getState() != State.INSTALLED) {
                 envclone.installResources(res);
-                unresolved.add(res);
+                context.addUnresolved(res);
             }
         }
 
         // Find the resources in the cloned environment
-        List<XResource> resources = new ArrayList<XResource>();
-        Set<XRequirement> unstatisfied = new HashSet<XRequirement>(reqs);
-        Map<XRequirement, XResource> mapping = new HashMap<XRequirement, XResource>();
-        findResources(envclone, unresolved, mapping, unstatisfied, resources);
+        findResources(context);
+        List<XResource> provisioned = new ArrayList<XResource>(context.getResources());
+        List<XResource> resources = context.getResources();
 
         // Remove abstract resources
         Iterator<XResource> itres = resources.iterator();
@@ -115,50 +898,245 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
             }
         }
 
-        AbstractProvisionResult result = new AbstractProvisionResult(mapping, unstatisfied, resources);
+        AbstractProvisionResult result = new AbstractProvisionResult(context.getMapping(), context.getUnsatisfied(), resources);
+        result.setProvisioning(reqs, provisioned, context.getProvisioned());
         LOGGER.debugf("END findResources");
         LOGGER.debugf("  resources: %s", result.getResources());
         LOGGER.debugf("  unsatisfied: %s", result.getUnsatisfiedRequirements());
 
+        metrics.addCall(resources.size(), result.getUnsatisfiedRequirements().size());
+
+        // A partial result is neither verified nor cached
+        if (context.isTimedOut()) {
+            result.setStatus(Status.TIMED_OUT);
+            return result;
+        }
+
         // Sanity check that we can resolve all result resources
+        verifyResult(context, result);
+
+        if (cacheKey != null) {
+            resultCache.put(cacheKey, reqs, result);
+        }
+
+        return result;
+    }
+
+    // A failed provisioning is reported to the listeners with a null result
+    private void finished(Set<XRequirement> reqs, ProvisionResult result, long start) {
+        long nanos = System.nanoTime() - start;
+        if (result != null) {
+            metrics.record(Phase.TOTAL, nanos);
+        }
+        listeners.provisionFinished(reqs, result, nanos);
+    }
+
+    private void verifyResult(ProvisionContext context, final AbstractProvisionResult result) {
+        final XEnvironment env = context.getEnvironment();
+        VerificationMode mode = verificationMode;
+        if (mode == VerificationMode.SKIP)
+            return;
+
+        // The wiring of a successful last round covers all result resources
+        Map<Resource, List<Wire>> wiring = context.getWiring();
+        if (mode == VerificationMode.REUSE && wiring != null) {
+            result.setWiring(getResultWiring(result, wiring));
+            return;
+        }
+
+        Executor executor = verificationExecutor;
+        if (mode == VerificationMode.ASYNCHRONOUS && executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    verifyResult(env, result);
+                }
+            });
+        } else {
+            verifyResult(env, result);
+        }
+    }
+
+    private void verifyResult(XEnvironment env, AbstractProvisionResult result) {
         List<XResource> mandatory = new ArrayList<XResource>();
-        mandatory.addAll(resources);
+        mandatory.addAll(result.getResources());
+        long start = System.nanoTime();
         try {
-            XResolveContext context = resolver.createResolveContext(envclone, mandatory, null);
-            resolver.resolve(context).entrySet();
+            XResolveContext resolveContext = resolver.createResolveContext(env, mandatory, null);
+            result.setWiring(getResultWiring(result, resolver.resolve(resolveContext)));
         } catch (ResolutionException ex) {
             LOGGER.cannotResolveResultResources(ex);
+        } finally {
+            metrics.addResolverCall();
+            metrics.record(Phase.VERIFY, System.nanoTime() - start);
         }
+    }
 
-        return result;
+    private Map<Resource, List<Wire>> getResultWiring(ProvisionResult result, Map<Resource, List<Wire>> wiring) {
+        Map<Resource, List<Wire>> resultWiring = new HashMap<Resource, List<Wire>>();
+        for (XResource res : result.getResources()) {
+            List<Wire> wires = wiring.get(res);
+            if (wires != null) {
+                resultWiring.put(res, wires);
+            }
+        }
+        return resultWiring;
+    }
+
+    /**
+     * The key of a request for the result cache and for coalescing, or null if neither applies.
+     */
+    private ProvisionResultCache.Key getRequestKey(XEnvironment env, Set<XRequirement> reqs) {
+        TrackingRepositoryStorage storage = getTrackingStorage();
+        AtomicLong generation = environments.get(env);
+        if (storage == null || generation == null || !(resultCache.isEnabled() || coalescing))
+            return null;
+        return ProvisionResultCache.createKey(reqs, env, generation.get(), storage.getGeneration());
     }
 
-    private void findResources(XEnvironment env, List<XResource> unresolved, Map<XRequirement, XResource> mapping, Set<XRequirement> unstatisfied,
-            List<XResource> resources) {
+    /**
+     * The storage of a repository that was not created with a {@link TrackingRepositoryStorage.Factory},
+     * like the one of a repository service, is shared with others. Its modifications are detected
+     * by {@link #synchronizeStorage()}.
+     */
+    private static TrackingRepositoryStorage createTrackingStorage(XRepository repository) {
+        RepositoryStorage storage = repository != null ? repository.adapt(RepositoryStorage.class) : null;
+        if (storage == null || storage instanceof TrackingRepositoryStorage)
+            return (TrackingRepositoryStorage) storage;
 
-        // Resolve the unsatisfied reqs in the environment
-        resolveInEnvironment(env, unresolved, mapping, unstatisfied, resources);
-        if (unstatisfied.isEmpty())
-            return;
+        TrackingRepositoryStorage shared = new TrackingRepositoryStorage(storage, true);
+        if (!shared.isTracking()) {
+            LOGGER.cannotTrackRepositoryStorage(storage);
+            return null;
+        }
+        return shared;
+    }
+
+    // Detect repository modifications that bypassed the tracking storage
+    private void synchronizeStorage() {
+        if (storage != null) {
+            storage.synchronize();
+        }
+    }
 
-        boolean envModified = false;
-        Set<XResource> installable = new HashSet<XResource>();
+    private void findResources(ProvisionContext context) {
+        XEnvironment env = context.getEnvironment();
+        Set<XRequirement> unstatisfied = context.getUnsatisfied();
+
+        // Only the reqs that were added by the previous round need to be looked up
+        Set<XRequirement> frontier = new LinkedHashSet<XRequirement>(unstatisfied);
+        Set<XRequirement> unfound = new LinkedHashSet<XRequirement>();
+        while (frontier != null) {
+            long start = System.nanoTime();
+            int round = context.nextRound(frontier.size());
+            int size = frontier.size();
+            LOGGER.debugf("Round %d, frontier: %d", round, size);
+            listeners.roundStarted(round, size);
+            boolean resolverCalled = false;
+            try {
+                // Stop between rounds when cancelled or when the deadline has passed
+                context.checkCancelled();
+                if (context.checkDeadline()) {
+                    LOGGER.debugf("Timed out in round %d", round);
+                    break;
+                }
+
+                // Get the frontier reqs that have no provider in the environment
+                Set<XRequirement> missing = new LinkedHashSet<XRequirement>();
+                for (XRequirement req : frontier) {
+                    if (unstatisfied.contains(req) && env.findProviders(req).isEmpty()) {
+                        missing.add(req);
+                    }
+                }
+
+                // Reqs without a repository provider may be provided by resources of the previous round
+                Iterator<XRequirement> itunfound = unfound.iterator();
+                while (itunfound.hasNext()) {
+                    if (!env.findProviders(itunfound.next()).isEmpty()) {
+                        itunfound.remove();
+                    }
+                }
+
+                // Resolve the unsatisfied reqs in the environment
+                if (!skipDoomedRounds || !(isResolutionDoomed(context, missing) || isResolutionDoomed(context, unfound))) {
+                    resolveInEnvironment(context);
+                    resolverCalled = true;
+                    if (unstatisfied.isEmpty()) {
+                        break;
+                    }
+                }
+
+                frontier = installProviders(context, missing, unfound);
+            } finally {
+                listeners.roundFinished(round, size, resolverCalled, System.nanoTime() - start);
+            }
+        }
+
+        metrics.addRounds(context.getRoundCount());
+        roundCount.addAndGet(context.getRoundCount());
+        frontierCount.addAndGet(context.getFrontierCount());
+    }
+
+    /**
+     * Install the repository providers for the missing reqs.
+     *
+     * @return the reqs of the installed resources that have no provider in the environment or null if nothing was installed
+     */
+    private Set<XRequirement> installProviders(ProvisionContext context, Set<XRequirement> missing, Set<XRequirement> unfound) {
+        XEnvironment env = context.getEnvironment();
+        Set<XRequirement> unstatisfied = context.getUnsatisfied();
+        Set<XResource> installable = new LinkedHashSet<XResource>();
+        Set<XRequirement> abstractReqs = new HashSet<XRequirement>();
 
         LOGGER.debugf("Finding unsatisfied reqs");
 
-        Iterator<XRequirement> itun = unstatisfied.iterator();
-        while (itun.hasNext()) {
-            XRequirement req = itun.next();
-            String reqnamespace = req.getNamespace();
+        // Requirements that are already in the environment are ignored
+        Map<XRequirement, XCapability> providers = findProvidersInRepository(context, missing);
 
-            // Ignore requirements that are already in the environment
-            if (!env.findProviders(req).isEmpty()) {
-                continue;
+        // Find the maven/module delegates of abstract providers together, unless they are cached
+        TrackingRepositoryStorage storage = getTrackingStorage();
+        long generation = storage != null ? storage.getGeneration() : -1;
+        Map<XRequirement, XCapability> delegateCaps = new HashMap<XRequirement, XCapability>();
+        Map<XRequirement, XRequirement> delegates = new LinkedHashMap<XRequirement, XRequirement>();
+        for (XRequirement req : missing) {
+            XCapability cap = providers.get(req);
+            XIdentityCapability icap = cap != null ? cap.getResource().getIdentityCapability() : null;
+            if (icap != null && XResource.TYPE_ABSTRACT.equals(icap.getAttribute(XResource.CAPABILITY_TYPE_ATTRIBUTE))) {
+                XCapability mcap = storage != null && delegateCache.isEnabled() ? delegateCache.get(icap.getResource()) : null;
+                if (mcap != null) {
+                    delegateCaps.put(req, mcap);
+                    continue;
+                }
+                XRequirement mreq = getRequirementDelegate(icap, XResource.MAVEN_IDENTITY_NAMESPACE);
+                if (mreq == null) {
+                    mreq = getRequirementDelegate(icap, XResource.MODULE_IDENTITY_NAMESPACE);
+                }
+                if (mreq != null) {
+                    delegates.put(req, mreq);
+                }
+            }
+        }
+        long start = System.nanoTime();
+        Map<XRequirement, XCapability> delegateProviders = findDelegateProviders(delegates.values());
+        if (!delegates.isEmpty()) {
+            metrics.addLookups(delegates.size());
+            metrics.record(Phase.REPOSITORY_LOOKUP, System.nanoTime() - start);
+        }
+        for (Entry<XRequirement, XRequirement> entry : delegates.entrySet()) {
+            XCapability mcap = delegateProviders.get(entry.getValue());
+            if (mcap != null) {
+                delegateCaps.put(entry.getKey(), mcap);
+                cacheDelegate(storage, generation, providers.get(entry.getKey()).getResource(), mcap);
             }
+        }
+
+        for (XRequirement req : missing) {
+            String reqnamespace = req.getNamespace();
 
             // Continue if we cannot find a provider for a given requirement
-            XCapability cap = findProviderInRepository(req);
+            XCapability cap = providers.get(req);
             if (cap == null) {
+                unfound.add(req);
                 continue;
             }
 
@@ -166,37 +1144,39 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
             XIdentityCapability icap = cap.getResource().getIdentityCapability();
             String icaptype = (String) icap.getAttribute(XResource.CAPABILITY_TYPE_ATTRIBUTE);
             if (XResource.TYPE_ABSTRACT.equals(icaptype)) {
-                if (getRequirementDelegate(icap, XResource.MAVEN_IDENTITY_NAMESPACE) != null) {
-                    XRequirement mreq = getRequirementDelegate(icap, XResource.MAVEN_IDENTITY_NAMESPACE);
-                    Iterator<Capability> capIt = repository.findProviders(mreq).iterator();
-                    if (capIt.hasNext()) {
-                        XCapability mcap = (XCapability) capIt.next();
-                        icap = mcap.getResource().getIdentityCapability();
-                    }
-                } else if (getRequirementDelegate(icap, XResource.MODULE_IDENTITY_NAMESPACE) != null) {
-                    XRequirement mreq = getRequirementDelegate(icap, XResource.MODULE_IDENTITY_NAMESPACE);
-                    Iterator<Capability> capIt = repository.findProviders(mreq).iterator();
-                    if (capIt.hasNext()) {
-                        XCapability mcap = (XCapability) capIt.next();
-                        icap = mcap.getResource().getIdentityCapability();
-                    }
+                XCapability mcap = delegateCaps.get(req);
+                if (mcap != null) {
+                    listeners.delegateExpanded(cap.getResource(), mcap.getResource());
+                    icap = mcap.getResource().getIdentityCapability();
                 }
 
                 // Remove the abstract requirement
-                itun.remove();
+                unstatisfied.remove(req);
+
+                // Install the materialized closure of an abstract feature in one step
+                List<XResource> closure = mcap == null && !delegates.containsKey(req) ? getFeatureClosure(context, cap.getResource(), abstractReqs) : null;
+                if (closure != null) {
+                    for (XResource res : closure) {
+                        installable.add(res);
+                        context.addProvisioned(req, res);
+                    }
+                    continue;
+                }
 
             } else if (XResource.MAVEN_IDENTITY_NAMESPACE.equals(reqnamespace)) {
 
                 // Remove the maven requirement
-                itun.remove();
+                unstatisfied.remove(req);
             }
 
             installable.add(icap.getResource());
+            context.addProvisioned(req, icap.getResource());
         }
 
         // Install the resources that match the unsatisfied reqs
+        Set<XRequirement> frontier = null;
         for (XResource res : installable) {
-            if (!resources.contains(res)) {
+            if (!context.isMandatory(res)) {
                 Collection<XRequirement> reqs = getRequirements(res, null);
                 Iterator<XRequirement> itreqs = reqs.iterator();
                 while (itreqs.hasNext()) {
@@ -210,19 +1190,41 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
                 LOGGER.debugf("Adding %d unsatisfied reqs", reqs.size());
                 unstatisfied.addAll(reqs);
                 env.installResources(res);
-                resources.add(res);
-                envModified = true;
+                context.addResource(res);
+                if (frontier == null) {
+                    frontier = new LinkedHashSet<XRequirement>();
+                }
+                frontier.addAll(reqs);
             }
         }
 
-        // Recursivly find the missing resources
-        if (envModified) {
-            findResources(env, unresolved, mapping, unstatisfied, resources);
+        // The abstract reqs of a closure are removed, like those of the missing reqs
+        unstatisfied.removeAll(abstractReqs);
+        if (frontier != null) {
+            frontier.removeAll(abstractReqs);
+        }
+        return frontier;
+    }
+
+    private boolean isResolutionDoomed(ProvisionContext context, Set<XRequirement> missing) {
+        for (XRequirement req : missing) {
+            String resolution = req.getDirective(REQUIREMENT_RESOLUTION_DIRECTIVE);
+            String effective = req.getDirective(REQUIREMENT_EFFECTIVE_DIRECTIVE);
+            if (RESOLUTION_DYNAMIC.equals(resolution) || RESOLUTION_OPTIONAL.equals(resolution))
+                continue;
+            if (effective != null && !EFFECTIVE_RESOLVE.equals(effective))
+                continue;
+            XResource res = req.getResource();
+            if (context.isMandatory(res)) {
+                LOGGER.debugf("Skip resolve, no provider for: %s", req);
+                return true;
+            }
         }
+        return false;
     }
 
     private Collection<XRequirement> getRequirements(XResource res, String[] namespaces) {
-        Set<XRequirement> reqs = new HashSet<XRequirement>();
+        Set<XRequirement> reqs = new LinkedHashSet<XRequirement>();
         if (namespaces != null) {
             for (String ns : namespaces) {
                 for (Requirement req : res.getRequirements(ns)) {
@@ -242,11 +1244,382 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
         return (XRequirement) (mreqs.size() == 1 ? mreqs.get(0) : null);
     }
 
+    private Map<XRequirement, XCapability> findProvidersInRepository(ProvisionContext context, Collection<XRequirement> reqs) {
+
+        // Requirements that are structurally equal have the same provider
+        Map<XRequirement, RequirementKey> keys = new HashMap<XRequirement, RequirementKey>();
+        Map<RequirementKey, XRequirement> pending = new LinkedHashMap<RequirementKey, XRequirement>();
+        for (XRequirement req : reqs) {
+            RequirementKey key = new RequirementKey(req);
+            keys.put(req, key);
+            if (!context.hasProviderLookup(key) && !pending.containsKey(key)) {
+                pending.put(key, req);
+            }
+        }
+
+        // Find the providers for the pending reqs, possibly batched or concurrently
+        Executor executor = lookupExecutor;
+        long start = System.nanoTime();
+        if (batchedLookup && pending.size() > 1) {
+            findProvidersBatched(context, pending);
+        } else if (executor != null && pending.size() > 1) {
+            findProvidersConcurrently(context, pending, executor);
+        } else {
+            for (Entry<RequirementKey, XRequirement> entry : pending.entrySet()) {
+                context.putProviderLookup(entry.getKey(), findProviderInRepository(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!pending.isEmpty()) {
+            metrics.addLookups(pending.size());
+            metrics.record(Phase.REPOSITORY_LOOKUP, System.nanoTime() - start);
+        }
+
+        Map<XRequirement, XCapability> result = new HashMap<XRequirement, XCapability>();
+        for (XRequirement req : reqs) {
+            result.put(req, context.getProviderLookup(keys.get(req)));
+        }
+        return result;
+    }
+
+    private void findProvidersConcurrently(ProvisionContext context, Map<RequirementKey, XRequirement> pending, Executor executor) {
+        Map<RequirementKey, FutureTask<XCapability>> tasks = new LinkedHashMap<RequirementKey, FutureTask<XCapability>>();
+        try {
+            for (final Entry<RequirementKey, XRequirement> entry : pending.entrySet()) {
+                FutureTask<XCapability> task = new FutureTask<XCapability>(new Callable<XCapability>() {
+                    @Override
+                    public XCapability call() throws Exception {
+                        return findProviderInRepository(entry.getKey(), entry.getValue());
+                    }
+                });
+                executor.execute(task);
+                tasks.put(entry.getKey(), task);
+            }
+            // Merge in the order of the reqs, regardless of the completion order
+            for (Entry<RequirementKey, FutureTask<XCapability>> entry : tasks.entrySet()) {
+                context.putProviderLookup(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw MESSAGES.cannotFindProviders(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw MESSAGES.cannotFindProviders(cause);
+        } finally {
+            for (FutureTask<XCapability> task : tasks.values()) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private void findProvidersBatched(ProvisionContext context, Map<RequirementKey, XRequirement> pending) {
+        TrackingRepositoryStorage storage = getTrackingStorage();
+        long generation = storage != null ? storage.getGeneration() : -1;
+
+        // The lookups that have not finished and when they started
+        Map<RequirementKey, Long> lookups = new LinkedHashMap<RequirementKey, Long>();
+        try {
+            // Answer what we can from the cache and the index, query the repository for the rest
+            Map<RequirementKey, XRequirement> queries = new LinkedHashMap<RequirementKey, XRequirement>();
+            for (Entry<RequirementKey, XRequirement> entry : pending.entrySet()) {
+                RequirementKey key = entry.getKey();
+                XRequirement req = entry.getValue();
+                XCapability cap = providerCache.isEnabled() ? providerCache.get(key) : null;
+                if (cap == null) {
+                    lookups.put(key, System.nanoTime());
+                    listeners.repositoryLookupStarted(req);
+                }
+                if (cap == null && repositoryIndex != null) {
+                    cap = repositoryIndex.findIdentityProvider(req);
+                    if (cap != null) {
+                        lookupFinished(lookups, key, req, 1);
+                    }
+                }
+                if (cap == null) {
+                    Collection<Capability> providers = repositoryIndex != null ? repositoryIndex.findProviders(req) : null;
+                    if (providers != null && !providers.isEmpty()) {
+                        cap = selectProvider(req, providers);
+                        lookupFinished(lookups, key, req, providers.size());
+                    }
+                }
+                if (cap != null || isMissingInRepository(storage, key)) {
+                    context.putProviderLookup(key, cap);
+                } else {
+                    queries.put(key, req);
+                }
+            }
+            if (!queries.isEmpty()) {
+                LOGGER.debugf("Find in repository: %s", queries.values());
+                Map<Requirement, Collection<Capability>> providermap = repository.findProviders(queries.values());
+                for (Entry<RequirementKey, XRequirement> entry : queries.entrySet()) {
+                    Collection<Capability> providers = providermap.get(entry.getValue());
+                    if (providers == null) {
+                        providers = Collections.<Capability> emptyList();
+                    }
+                    XCapability cap = selectProvider(entry.getValue(), providers);
+                    lookupFinished(lookups, entry.getKey(), entry.getValue(), providers.size());
+                    context.putProviderLookup(entry.getKey(), cap);
+                }
+            }
+
+            for (Entry<RequirementKey, XRequirement> entry : pending.entrySet()) {
+                cacheProvider(storage, generation, entry.getKey(), entry.getValue(), context.getProviderLookup(entry.getKey()));
+            }
+        } finally {
+            // Lookups answered by the negative cache or that failed
+            for (Entry<RequirementKey, Long> entry : lookups.entrySet()) {
+                listeners.repositoryLookupFinished(pending.get(entry.getKey()), 0, System.nanoTime() - entry.getValue());
+            }
+        }
+    }
+
+    private void lookupFinished(Map<RequirementKey, Long> lookups, RequirementKey key, XRequirement req, int providers) {
+        long start = lookups.remove(key);
+        listeners.repositoryLookupFinished(req, providers, System.nanoTime() - start);
+    }
+
+    private Map<XRequirement, XCapability> findDelegateProviders(Collection<XRequirement> mreqs) {
+        Map<XRequirement, XCapability> result = new HashMap<XRequirement, XCapability>();
+        List<XRequirement> queries = new ArrayList<XRequirement>();
+        for (XRequirement mreq : mreqs) {
+            Collection<Capability> providers = batchedLookup && repositoryIndex != null ? repositoryIndex.findProviders(mreq) : null;
+            if (providers != null && !providers.isEmpty()) {
+                result.put(mreq, (XCapability) providers.iterator().next());
+            } else if (batchedLookup) {
+                queries.add(mreq);
+            } else {
+                Iterator<Capability> capIt = findProviders(mreq).iterator();
+                if (capIt.hasNext()) {
+                    result.put(mreq, (XCapability) capIt.next());
+                }
+            }
+        }
+        if (!queries.isEmpty()) {
+            Map<Requirement, Collection<Capability>> providermap = repository.findProviders(queries);
+            for (XRequirement mreq : queries) {
+                Collection<Capability> providers = providermap.get(mreq);
+                if (providers != null && !providers.isEmpty()) {
+                    result.put(mreq, (XCapability) providers.iterator().next());
+                }
+            }
+        }
+        return result;
+    }
+
+    private XCapability findProviderInRepository(RequirementKey key, XRequirement req) {
+        XCapability cap = providerCache.isEnabled() ? providerCache.get(key) : null;
+        if (cap == null) {
+            TrackingRepositoryStorage storage = getTrackingStorage();
+            if (isMissingInRepository(storage, key)) {
+                LOGGER.debugf(" Not found (cached): %s", req);
+                return null;
+            }
+            long generation = storage != null ? storage.getGeneration() : -1;
+            cap = findProviderInRepository(req);
+            cacheProvider(storage, generation, key, req, cap);
+        }
+        return cap;
+    }
+
+    /**
+     * Get the resources of the closure of an abstract feature without delegate in install order
+     * or null if it cannot be materialized.
+     *
+     * @param abstractReqs receives the reqs of the closure that are provided by abstract resources
+     */
+    private List<XResource> getFeatureClosure(ProvisionContext context, XResource res, Set<XRequirement> abstractReqs) {
+        TrackingRepositoryStorage storage = getTrackingStorage();
+        if (storage == null || !closureCache.isEnabled())
+            return null;
+
+        Closure closure = closureCache.get(res);
+        if (closure == null) {
+            long generation = storage.getGeneration();
+            closure = materializeClosure(context, storage, res);
+            if (closure != null && storage.getGeneration() == generation) {
+                closureCache.put(res, closure);
+                if (storage.getGeneration() != generation) {
+                    closureCache.remove(res, closure);
+                }
+            }
+        }
+        return closure != null ? walkClosure(context, closure, res, abstractReqs) : null;
+    }
+
+    /**
+     * Collect the mandatory identity requirements of an abstract feature and of the abstract features without
+     * delegate that it requires, together with their providers in the repository and the maven/module delegates.
+     *
+     * @return the closure or null if a delegate cannot be found
+     */
+    private Closure materializeClosure(ProvisionContext context, TrackingRepositoryStorage storage, XResource root) {
+        Map<XResource, List<XRequirement>> requirements = new HashMap<XResource, List<XRequirement>>();
+        Map<XRequirement, XResource> providers = new HashMap<XRequirement, XResource>();
+        Map<XResource, XResource> delegates = new HashMap<XResource, XResource>();
+        Set<String> names = new HashSet<String>();
+        names.add(getIdentityName(root));
+
+        Deque<XResource> features = new ArrayDeque<XResource>();
+        features.push(root);
+        requirements.put(root, new ArrayList<XRequirement>());
+        while (!features.isEmpty()) {
+            XResource res = features.pop();
+            List<XRequirement> featureReqs = requirements.get(res);
+            for (XRequirement req : getRequirements(res, new String[] { IdentityNamespace.IDENTITY_NAMESPACE })) {
+                String resolution = req.getDirective(REQUIREMENT_RESOLUTION_DIRECTIVE);
+                if (RESOLUTION_DYNAMIC.equals(resolution) || RESOLUTION_OPTIONAL.equals(resolution))
+                    continue;
+
+                featureReqs.add(req);
+                Object reqname = req.getAttribute(IdentityNamespace.IDENTITY_NAMESPACE);
+                if (reqname instanceof String) {
+                    names.add((String) reqname);
+                }
+                XCapability cap = findProvidersInRepository(context, Collections.singleton(req)).get(req);
+                if (cap == null)
+                    continue;
+
+                XResource provider = cap.getResource();
+                providers.put(req, provider);
+                names.add(getIdentityName(provider));
+                XIdentityCapability icap = provider.getIdentityCapability();
+                if (!XResource.TYPE_ABSTRACT.equals(icap.getAttribute(XResource.CAPABILITY_TYPE_ATTRIBUTE)) || requirements.containsKey(provider) || delegates.containsKey(provider))
+                    continue;
+
+                XRequirement mreq = getRequirementDelegate(icap, XResource.MAVEN_IDENTITY_NAMESPACE);
+                if (mreq == null) {
+                    mreq = getRequirementDelegate(icap, XResource.MODULE_IDENTITY_NAMESPACE);
+                }
+                if (mreq == null) {
+                    requirements.put(provider, new ArrayList<XRequirement>());
+                    features.push(provider);
+                    continue;
+                }
+
+                XCapability mcap = delegateCache.isEnabled() ? delegateCache.get(provider) : null;
+                if (mcap == null) {
+                    long generation = storage.getGeneration();
+                    mcap = findDelegateProviders(Collections.singleton(mreq)).get(mreq);
+                    metrics.addLookups(1);
+                    if (mcap == null)
+                        return null;
+                    cacheDelegate(storage, generation, provider, mcap);
+                }
+                delegates.put(provider, mcap.getResource());
+                names.add(getIdentityName(mcap.getResource()));
+            }
+        }
+        return new Closure(requirements, providers, delegates, names);
+    }
+
+    /**
+     * Walk a closure breadth first like the rounds would. Requirements that the environment already provides
+     * are not followed and abstract resources with a delegate are replaced by the delegate.
+     *
+     * @return the resources to install or null if a requirement has neither a provider in the repository nor in the environment
+     */
+    private List<XResource> walkClosure(ProvisionContext context, Closure closure, XResource root, Set<XRequirement> abstractReqs) {
+        XEnvironment env = context.getEnvironment();
+        List<XResource> resources = new ArrayList<XResource>();
+        Set<XRequirement> featureReqs = new HashSet<XRequirement>();
+        Map<XResource, XResource> expanded = new LinkedHashMap<XResource, XResource>();
+        Set<XResource> visited = new HashSet<XResource>();
+        Deque<XResource> features = new ArrayDeque<XResource>();
+        visited.add(root);
+        resources.add(root);
+        features.add(root);
+        while (!features.isEmpty()) {
+            XResource res = features.poll();
+            for (XRequirement req : closure.getRequirements(res)) {
+                if (!env.findProviders(req).isEmpty())
+                    continue;
+
+                XResource provider = closure.getProvider(req);
+                if (provider == null)
+                    return null;
+
+                XResource delegate = closure.getDelegate(provider);
+                boolean feature = closure.getRequirements(provider) != null;
+                if (delegate != null || feature) {
+                    featureReqs.add(req);
+                }
+                XResource target = delegate != null ? delegate : provider;
+                if (visited.add(target)) {
+                    resources.add(target);
+                    if (delegate != null) {
+                        expanded.put(provider, delegate);
+                    } else if (feature) {
+                        features.add(provider);
+                    }
+                }
+            }
+        }
+        for (Entry<XResource, XResource> entry : expanded.entrySet()) {
+            listeners.delegateExpanded(entry.getKey(), entry.getValue());
+        }
+        abstractReqs.addAll(featureReqs);
+        return resources;
+    }
+
+    private String getIdentityName(XResource res) {
+        XIdentityCapability icap = res.getIdentityCapability();
+        return icap != null ? icap.getSymbolicName() : null;
+    }
+
+    private void cacheDelegate(TrackingRepositoryStorage storage, long generation, XResource res, XCapability mcap) {
+        if (storage != null && storage.getGeneration() == generation) {
+            delegateCache.put(res, mcap);
+            if (storage.getGeneration() != generation) {
+                delegateCache.remove(res, mcap);
+            }
+        }
+    }
+
+    private boolean isMissingInRepository(TrackingRepositoryStorage storage, RequirementKey key) {
+        return storage != null && negativeCache.isEnabled() && negativeCache.isMissing(key);
+    }
+
+    // A concurrent modification either invalidates the cache after the put or is seen by the recheck
+    private void cacheProvider(TrackingRepositoryStorage storage, long generation, RequirementKey key, XRequirement req, XCapability cap) {
+        if (storage != null && storage.getGeneration() == generation) {
+            if (cap != null) {
+                providerCache.put(key, cap);
+            } else {
+                negativeCache.put(key, req);
+            }
+            if (storage.getGeneration() != generation) {
+                providerCache.remove(key, cap);
+                negativeCache.remove(key, req);
+            }
+        }
+    }
+
     private XCapability findProviderInRepository(XRequirement req) {
 
         // Find the providers in the repository
         LOGGER.debugf("Find in repository: %s", req);
-        Collection<Capability> providers = repository.findProviders(req);
+        long start = System.nanoTime();
+        listeners.repositoryLookupStarted(req);
+        int count = 0;
+        try {
+            XCapability cap = repositoryIndex != null ? repositoryIndex.findIdentityProvider(req) : null;
+            if (cap != null) {
+                LOGGER.debugf(" Found in index: %s", cap);
+                count = 1;
+                return cap;
+            }
+            Collection<Capability> providers = findProviders(req);
+            count = providers.size();
+            return selectProvider(req, providers);
+        } finally {
+            listeners.repositoryLookupFinished(req, count, System.nanoTime() - start);
+        }
+    }
+
+    private XCapability selectProvider(XRequirement req, Collection<Capability> providers) {
 
         // Remove abstract resources
         if (providers.size() > 1) {
@@ -266,16 +1639,7 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
             LOGGER.debugf(" Found one: %s", cap);
         } else if (providers.size() > 1) {
             List<Capability> sorted = new ArrayList<Capability>(providers);
-            Collections.sort(sorted, new Comparator<Capability>() {
-                @Override
-                public int compare(Capability cap1, Capability cap2) {
-                    XIdentityCapability icap1 = ((XResource) cap1.getResource()).getIdentityCapability();
-                    XIdentityCapability icap2 = ((XResource) cap2.getResource()).getIdentityCapability();
-                    Version v1 = icap1.getVersion();
-                    Version v2 = icap2.getVersion();
-                    return v2.compareTo(v1);
-                }
-            });
+            Collections.sort(sorted, HIGHEST_VERSION_FIRST);
             LOGGER.debugf(" Found multiple: %s", sorted);
             cap = (XCapability) sorted.get(0);
         } else {
@@ -284,13 +1648,27 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
         return cap;
     }
 
-    private void resolveInEnvironment(XEnvironment env, List<XResource> unresolved, Map<XRequirement, XResource> mapping, Set<XRequirement> unstatisfied, List<XResource> resources) {
+    private Collection<Capability> findProviders(XRequirement req) {
+        // Fall back to the repository for requirements that cannot be indexed or may be provided by a delegate
+        Collection<Capability> providers = repositoryIndex != null ? repositoryIndex.findProviders(req) : null;
+        if (providers == null || providers.isEmpty()) {
+            providers = repository.findProviders(req);
+        }
+        return providers;
+    }
+
+    private void resolveInEnvironment(ProvisionContext context) {
+        Map<XRequirement, XResource> mapping = context.getMapping();
+        Set<XRequirement> unstatisfied = context.getUnsatisfied();
         List<XResource> mandatory = new ArrayList<XResource>();
-        mandatory.addAll(unresolved);
-        mandatory.addAll(resources);
+        mandatory.addAll(context.getUnresolved());
+        mandatory.addAll(context.getResources());
+        long start = System.nanoTime();
         try {
-            XResolveContext context = resolver.createResolveContext(env, mandatory, null);
-            Set<Entry<Resource, List<Wire>>> wiremap = resolver.resolve(context).entrySet();
+            XResolveContext resolveContext = resolver.createResolveContext(context.getEnvironment(), mandatory, null);
+            Map<Resource, List<Wire>> wiring = resolver.resolve(resolveContext);
+            context.setWiring(wiring);
+            Set<Entry<Resource, List<Wire>>> wiremap = wiring.entrySet();
             for (Entry<Resource, List<Wire>> entry : wiremap) {
                 Iterator<XRequirement> itunsat = unstatisfied.iterator();
                 while (itunsat.hasNext()) {
@@ -308,19 +1686,48 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
             for (Requirement req : ex.getUnresolvedRequirements()) {
                 LOGGER.debugf(" unresolved: %s", req);
             }
+        } finally {
+            metrics.addResolverCall();
+            metrics.record(Phase.RESOLVE, System.nanoTime() - start);
         }
     }
 
     private XEnvironment cloneEnvironment(XEnvironment env) {
-        if (env instanceof AbstractEnvironment) {
-            return ((AbstractEnvironment) env).clone();
-        } else {
-            AbstractEnvironment clone = new AbstractEnvironment();
-            Iterator<XResource> itres = env.getResources(null);
-            while (itres.hasNext()) {
-                clone.installResources(itres.next());
+        // Copy-on-write view that only holds the resources added by the provisioner
+        return new LayeredEnvironment(env);
+    }
+
+    private static final class InflightRequest extends FutureTask<ProvisionResult> {
+
+        private final Set<XRequirement> reqs;
+
+        InflightRequest(Set<XRequirement> reqs, Callable<ProvisionResult> callable) {
+            super(callable);
+            this.reqs = reqs;
+        }
+
+        ProvisionResult getResult() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof RuntimeException)
+                            throw (RuntimeException) cause;
+                        if (cause instanceof Error)
+                            throw (Error) cause;
+                        throw MESSAGES.cannotProvision(cause, reqs);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
             }
-            return clone;
         }
     }
 
@@ -329,6 +1736,11 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
         private final Map<XRequirement, XResource> mapping;
         private final Set<XRequirement> unsatisfied;
         private final List<XResource> resources;
+        private volatile Map<Resource, List<Wire>> wiring;
+        private volatile Status status = Status.COMPLETE;
+        private Set<XRequirement> requests;
+        private List<XResource> provisioned;
+        private Map<XRequirement, Set<XResource>> provisionedFor;
 
         public AbstractProvisionResult(Map<XRequirement, XResource> mapping, Set<XRequirement> unstatisfied, List<XResource> resources) {
             this.mapping = mapping;
@@ -336,6 +1748,11 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
             this.resources = resources;
         }
 
+        AbstractProvisionResult(Map<XRequirement, XResource> mapping, Set<XRequirement> unstatisfied, List<XResource> resources, Map<Resource, List<Wire>> wiring) {
+            this(mapping, unstatisfied, resources);
+            this.wiring = wiring;
+        }
+
         @Override
         public Map<XRequirement, XResource> getRequirementMapping() {
             return Collections.unmodifiableMap(mapping);
@@ -350,5 +1767,86 @@ public class AbstractResourceProvisioner implements XResourceProvisioner {
         public Set<XRequirement> getUnsatisfiedRequirements() {
             return Collections.unmodifiableSet(unsatisfied);
         }
+
+        @Override
+        public Map<Resource, List<Wire>> getWiring() {
+            Map<Resource, List<Wire>> result = wiring;
+            return result != null ? Collections.unmodifiableMap(result) : null;
+        }
+
+        void setWiring(Map<Resource, List<Wire>> wiring) {
+            this.wiring = wiring;
+        }
+
+        @Override
+        public Status getStatus() {
+            return status;
+        }
+
+        void setStatus(Status status) {
+            this.status = status;
+        }
+
+        /**
+         * Record how the result was provisioned, so that it can be the base of a delta
+         *
+         * @param requests the requested requirements
+         * @param provisioned the provisioned resources including the abstract ones
+         * @param provisionedFor the resources that were installed for a requirement
+         */
+        void setProvisioning(Set<XRequirement> requests, List<XResource> provisioned, Map<XRequirement, Set<XResource>> provisionedFor) {
+            this.requests = new LinkedHashSet<XRequirement>(requests);
+            this.provisioned = provisioned;
+            this.provisionedFor = provisionedFor;
+        }
+
+        /**
+         * The requested requirements or null if not recorded
+         */
+        Set<XRequirement> getRequests() {
+            return requests;
+        }
+
+        /**
+         * The provisioned resources including the abstract ones or null if not recorded
+         */
+        List<XResource> getProvisioned() {
+            return provisioned;
+        }
+
+        /**
+         * The resources that were installed for a requirement or null if not recorded
+         */
+        Map<XRequirement, Set<XResource>> getProvisionedFor() {
+            return provisionedFor;
+        }
+    }
+
+    static class AbstractProvisionDelta implements ProvisionDelta {
+
+        private final ProvisionResult result;
+        private final List<XResource> added;
+        private final List<XResource> removed;
+
+        AbstractProvisionDelta(ProvisionResult result, List<XResource> added, List<XResource> removed) {
+            this.result = result;
+            this.added = added;
+            this.removed = removed;
+        }
+
+        @Override
+        public ProvisionResult getResult() {
+            return result;
+        }
+
+        @Override
+        public List<XResource> getAddedResources() {
+            return Collections.unmodifiableList(added);
+        }
+
+        @Override
+        public List<XResource> getRemovedResources() {
+            return Collections.unmodifiableList(removed);
+        }
     }
 }
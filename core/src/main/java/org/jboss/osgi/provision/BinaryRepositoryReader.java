@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.FORMAT_VERSION;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.MAGIC;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.TYPE_DOUBLE;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.TYPE_LIST;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.TYPE_LONG;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.TYPE_STRING;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.TYPE_VERSION;
+import static org.jboss.osgi.provision.BinaryRepositoryWriter.UTF8;
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.repository.RepositoryReader;
+import org.jboss.osgi.repository.RepositoryXMLReader;
+import org.jboss.osgi.repository.URLResourceBuilderFactory;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.osgi.framework.Version;
+
+/**
+ * A {@link RepositoryReader} for the binary repository format written by {@link BinaryRepositoryWriter}.
+ *
+ * The string table is read eagerly, resources are decoded on demand. Resources are built like
+ * the {@link RepositoryXMLReader} builds them, so that they provide their content from the url
+ * of the content capability.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class BinaryRepositoryReader implements RepositoryReader {
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final Map<String, String> attributes;
+    private int remaining;
+
+    private BinaryRepositoryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+                throw MESSAGES.invalidRepositoryFormat(null);
+            strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, UTF8).intern();
+            }
+            attributes = readDirectives();
+            remaining = buffer.getInt();
+        } catch (BufferUnderflowException ex) {
+            throw MESSAGES.invalidRepositoryFormat(ex);
+        }
+    }
+
+    /**
+     * Create a reader that memory maps the given file.
+     */
+    public static BinaryRepositoryReader create(File file) throws IOException {
+        if (file == null)
+            throw MESSAGES.illegalArgumentNull("file");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new BinaryRepositoryReader(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Create a reader for the content of the given stream.
+     */
+    public static BinaryRepositoryReader create(InputStream input) throws IOException {
+        if (input == null)
+            throw MESSAGES.illegalArgumentNull("input");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            byte[] bytes = new byte[8192];
+            int len;
+            while ((len = input.read(bytes)) > 0) {
+                output.write(bytes, 0, len);
+            }
+        } finally {
+            input.close();
+        }
+        return create(ByteBuffer.wrap(output.toByteArray()));
+    }
+
+    public static BinaryRepositoryReader create(ByteBuffer buffer) {
+        if (buffer == null)
+            throw MESSAGES.illegalArgumentNull("buffer");
+        return new BinaryRepositoryReader(buffer.duplicate());
+    }
+
+    @Override
+    public Map<String, String> getRepositoryAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public synchronized XResource nextResource() {
+        if (remaining == 0)
+            return null;
+        try {
+            XResourceBuilder<XResource> builder = URLResourceBuilderFactory.create();
+            int capcount = buffer.getInt();
+            for (int i = 0; i < capcount; i++) {
+                String namespace = readString();
+                builder.addCapability(namespace, readAttributes(), readDirectives());
+            }
+            int reqcount = buffer.getInt();
+            for (int i = 0; i < reqcount; i++) {
+                String namespace = readString();
+                builder.addRequirement(namespace, readAttributes(), readDirectives());
+            }
+            remaining--;
+            return builder.getResource();
+        } catch (BufferUnderflowException ex) {
+            throw MESSAGES.invalidRepositoryFormat(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released with the buffer
+    }
+
+    private Map<String, Object> readAttributes() {
+        int count = buffer.getInt();
+        Map<String, Object> atts = new HashMap<String, Object>();
+        for (int i = 0; i < count; i++) {
+            String key = readString();
+            atts.put(key, readValue());
+        }
+        return atts;
+    }
+
+    private Map<String, String> readDirectives() {
+        int count = buffer.getInt();
+        Map<String, String> dirs = new HashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            String key = readString();
+            dirs.put(key, readString());
+        }
+        return dirs;
+    }
+
+    private Object readValue() {
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_STRING:
+                return readString();
+            case TYPE_VERSION:
+                int major = buffer.getInt();
+                int minor = buffer.getInt();
+                int micro = buffer.getInt();
+                return new Version(major, minor, micro, readString());
+            case TYPE_LONG:
+                return buffer.getLong();
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_LIST:
+                int size = buffer.getInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            default:
+                throw MESSAGES.invalidRepositoryFormat(null);
+        }
+    }
+
+    private String readString() {
+        int index = buffer.getInt();
+        if (index < 0 || index >= strings.length)
+            throw MESSAGES.invalidRepositoryFormat(null);
+        return strings[index];
+    }
+}
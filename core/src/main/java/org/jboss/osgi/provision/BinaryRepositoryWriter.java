@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jboss.osgi.repository.RepositoryReader;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * Compiles the resources of a {@link RepositoryReader} into the binary repository format
+ * that is read by {@link BinaryRepositoryReader}.
+ *
+ * All strings are stored once in a string table and versions are stored in their parsed form.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class BinaryRepositoryWriter {
+
+    static final int MAGIC = 0x4a424652;
+    static final int FORMAT_VERSION = 1;
+
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_VERSION = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_LIST = 4;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(body);
+
+    private BinaryRepositoryWriter() {
+    }
+
+    /**
+     * Compile all resources of the given reader and close it.
+     * @return the number of compiled resources
+     */
+    public static int compile(RepositoryReader reader, OutputStream output) throws IOException {
+        if (reader == null)
+            throw MESSAGES.illegalArgumentNull("reader");
+        if (output == null)
+            throw MESSAGES.illegalArgumentNull("output");
+
+        BinaryRepositoryWriter writer = new BinaryRepositoryWriter();
+        List<XResource> resources = new ArrayList<XResource>();
+        Map<String, String> repoatts;
+        try {
+            repoatts = reader.getRepositoryAttributes();
+            XResource res = reader.nextResource();
+            while (res != null) {
+                resources.add(res);
+                res = reader.nextResource();
+            }
+        } finally {
+            reader.close();
+        }
+
+        writer.writeDirectives(repoatts != null ? repoatts : Collections.<String, String> emptyMap());
+        writer.out.writeInt(resources.size());
+        for (XResource res : resources) {
+            writer.writeResource(res);
+        }
+        writer.writeTo(output);
+        return resources.size();
+    }
+
+    private void writeTo(OutputStream output) throws IOException {
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeInt(strings.size());
+        for (String str : strings.keySet()) {
+            byte[] bytes = str.getBytes(UTF8);
+            header.writeInt(bytes.length);
+            header.write(bytes);
+        }
+        body.writeTo(header);
+        header.flush();
+    }
+
+    private void writeResource(XResource res) throws IOException {
+        List<Capability> caps = res.getCapabilities(null);
+        out.writeInt(caps.size());
+        for (Capability cap : caps) {
+            writeString(cap.getNamespace());
+            writeAttributes(cap.getAttributes());
+            writeDirectives(cap.getDirectives());
+        }
+        List<Requirement> reqs = res.getRequirements(null);
+        out.writeInt(reqs.size());
+        for (Requirement req : reqs) {
+            writeString(req.getNamespace());
+            writeAttributes(req.getAttributes());
+            writeDirectives(req.getDirectives());
+        }
+    }
+
+    private void writeAttributes(Map<String, Object> atts) throws IOException {
+        out.writeInt(atts.size());
+        for (Entry<String, Object> entry : atts.entrySet()) {
+            writeString(entry.getKey());
+            writeValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void writeDirectives(Map<String, String> dirs) throws IOException {
+        out.writeInt(dirs.size());
+        for (Entry<String, String> entry : dirs.entrySet()) {
+            if (entry.getValue() == null)
+                throw MESSAGES.unsupportedDirectiveValue(entry.getKey(), null);
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+        }
+    }
+
+    // The attribute types of the repository XML, anything else cannot be read back with its type
+    private void writeValue(String name, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString((String) value);
+        } else if (value instanceof Version) {
+            Version version = (Version) value;
+            out.writeByte(TYPE_VERSION);
+            out.writeInt(version.getMajor());
+            out.writeInt(version.getMinor());
+            out.writeInt(version.getMicro());
+            writeString(version.getQualifier());
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(name, element);
+            }
+        } else {
+            throw MESSAGES.unsupportedAttributeValue(name, value);
+        }
+    }
+
+    private void writeString(String str) throws IOException {
+        Integer index = strings.get(str);
+        if (index == null) {
+            index = strings.size();
+            strings.put(str, index);
+        }
+        out.writeInt(index);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionLogger.LOGGER;
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Capability;
+import org.osgi.service.repository.ContentNamespace;
+import org.osgi.service.repository.RepositoryContent;
+
+/**
+ * Fetches the content of provisioned resources concurrently into local copies.
+ *
+ * The number of concurrent fetches and the declared content size of the running fetches are bounded.
+ * A resource that does not declare its size is accounted with {@link #DEFAULT_CONTENT_SIZE}.
+ *
+ * The executor may be shared with the installs that read the content, also when it is bounded.
+ * A reader that asks for content whose fetch has not started runs the fetch on its own thread
+ * instead of waiting for an executor thread that may be taken by the readers. Such a fetch is
+ * not subject to the bounds.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class ContentPrefetcher {
+
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 64L * 1024 * 1024;
+    public static final long DEFAULT_CONTENT_SIZE = 1024 * 1024;
+
+    private final Executor executor;
+    private final int maxConcurrentFetches;
+    private final long maxBytesInFlight;
+
+    public ContentPrefetcher(Executor executor) {
+        this(executor, DEFAULT_MAX_CONCURRENT_FETCHES, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    public ContentPrefetcher(Executor executor, int maxConcurrentFetches, long maxBytesInFlight) {
+        if (executor == null)
+            throw MESSAGES.illegalArgumentNull("executor");
+        this.executor = executor;
+        this.maxConcurrentFetches = Math.max(1, maxConcurrentFetches);
+        this.maxBytesInFlight = Math.max(1, maxBytesInFlight);
+    }
+
+    public int getMaxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    public long getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    /**
+     * Start fetching the content of the given resources in result order.
+     * Resources that do not provide {@link RepositoryContent} are ignored.
+     */
+    public PrefetchedContent prefetch(List<XResource> resources) {
+        if (resources == null)
+            throw MESSAGES.illegalArgumentNull("resources");
+        PrefetchedContent prefetched = new PrefetchedContent();
+        for (XResource res : resources) {
+            if (res instanceof RepositoryContent) {
+                prefetched.add(res);
+            }
+        }
+        prefetched.schedule();
+        return prefetched;
+    }
+
+    static long getContentSize(XResource res) {
+        for (Capability cap : res.getCapabilities(ContentNamespace.CONTENT_NAMESPACE)) {
+            Object size = cap.getAttributes().get(ContentNamespace.CAPABILITY_SIZE_ATTRIBUTE);
+            if (size instanceof Number) {
+                return ((Number) size).longValue();
+            }
+        }
+        return DEFAULT_CONTENT_SIZE;
+    }
+
+    /**
+     * The local copies of one prefetch. Closing it cancels pending fetches and deletes the copies.
+     */
+    public final class PrefetchedContent implements Closeable {
+
+        private final Map<XResource, Fetch> fetches = new LinkedHashMap<XResource, Fetch>();
+        private final LinkedList<Fetch> pending = new LinkedList<Fetch>();
+        private int running;
+        private long bytesInFlight;
+        private boolean closed;
+
+        private PrefetchedContent() {
+        }
+
+        private void add(XResource res) {
+            Fetch fetch = new Fetch(res);
+            fetches.put(res, fetch);
+            pending.add(fetch);
+        }
+
+        /**
+         * Get the prefetched content, waiting for its fetch to complete.
+         * @return the local copy or null if the content was not prefetched
+         */
+        public InputStream getContent(XResource res) throws IOException {
+            Fetch fetch = fetches.get(res);
+            if (fetch == null)
+                return null;
+            // A fetch runs once, on this thread if it has not started yet
+            claim(fetch);
+            fetch.run();
+            try {
+                return new FileInputStream(fetch.get());
+            } catch (ExecutionException ex) {
+                LOGGER.debugf(ex.getCause(), "Cannot prefetch content: %s", res);
+                return null;
+            } catch (CancellationException ex) {
+                throw MESSAGES.prefetchCancelled(ex, res);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            List<FutureTask<File>> tasks;
+            synchronized (this) {
+                closed = true;
+                for (Fetch fetch : pending) {
+                    fetch.cancel(false);
+                }
+                pending.clear();
+                tasks = new ArrayList<FutureTask<File>>(fetches.values());
+            }
+            for (FutureTask<File> task : tasks) {
+                if (!task.isCancelled()) {
+                    try {
+                        task.get().delete();
+                    } catch (Exception ex) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        // Start pending fetches while within bounds, one fetch may always run
+        private synchronized void schedule() {
+            while (!closed && !pending.isEmpty() && running < maxConcurrentFetches) {
+                Fetch next = pending.getFirst();
+                if (running > 0 && bytesInFlight + next.size > maxBytesInFlight)
+                    break;
+                pending.removeFirst();
+                running++;
+                bytesInFlight += next.size;
+                executor.execute(next);
+            }
+        }
+
+        // Account a pending fetch that the calling thread takes as running
+        private synchronized void claim(Fetch fetch) {
+            if (!closed && pending.remove(fetch)) {
+                running++;
+                bytesInFlight += fetch.size;
+            }
+        }
+
+        private synchronized void completed(Fetch fetch) {
+            running--;
+            bytesInFlight -= fetch.size;
+            schedule();
+        }
+
+        private final class Fetch extends FutureTask<File> {
+
+            private final long size;
+
+            Fetch(final XResource res) {
+                super(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        File file = null;
+                        try {
+                            file = File.createTempFile("prefetch", ".jar");
+                            InputStream input = ((RepositoryContent) res).getContent();
+                            try {
+                                OutputStream output = new FileOutputStream(file);
+                                try {
+                                    byte[] buffer = new byte[8192];
+                                    int len;
+                                    while ((len = input.read(buffer)) > 0) {
+                                        output.write(buffer, 0, len);
+                                    }
+                                } finally {
+                                    output.close();
+                                }
+                            } finally {
+                                input.close();
+                            }
+                            return file;
+                        } catch (Exception ex) {
+                            if (file != null) {
+                                file.delete();
+                            }
+                            throw ex;
+                        }
+                    }
+                });
+                this.size = Math.max(0, getContentSize(res));
+            }
+
+            @Override
+            protected void done() {
+                if (!isCancelled()) {
+                    completed(this);
+                }
+            }
+        }
+    }
+}
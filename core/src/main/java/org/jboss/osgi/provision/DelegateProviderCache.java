@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XResource;
+
+/**
+ * A cache of the maven/module delegate providers of abstract resources.
+ *
+ * The cache is shared between provisioning calls and is cleared when the repository storage changes.
+ * Abstract resources without a delegate provider are not cached.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class DelegateProviderCache implements RepositoryStorageListener {
+
+    private final ConcurrentMap<XResource, XCapability> delegates = new ConcurrentHashMap<XResource, XCapability>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    DelegateProviderCache() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            delegates.clear();
+        }
+    }
+
+    public int getSize() {
+        return delegates.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        delegates.clear();
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        delegates.clear();
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        delegates.clear();
+    }
+
+    @Override
+    public void repositoryChanged() {
+        delegates.clear();
+    }
+
+    XCapability get(XResource res) {
+        XCapability cap = delegates.get(res);
+        if (cap != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return cap;
+    }
+
+    void put(XResource res, XCapability cap) {
+        if (enabled && cap != null) {
+            delegates.put(res, cap);
+        }
+    }
+
+    void remove(XResource res, XCapability cap) {
+        if (cap != null) {
+            delegates.remove(res, cap);
+        }
+    }
+}
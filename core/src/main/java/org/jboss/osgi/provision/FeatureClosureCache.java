@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.resource.Capability;
+
+/**
+ * A cache of the materialized transitive closures of abstract features.
+ *
+ * A closure is invalidated when a resource is added to or removed from the repository storage
+ * that has the identity name of a resource or requirement the closure depends on.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class FeatureClosureCache implements RepositoryStorageListener {
+
+    private final ConcurrentMap<XResource, Closure> closures = new ConcurrentHashMap<XResource, Closure>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    FeatureClosureCache() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            closures.clear();
+        }
+    }
+
+    public int getSize() {
+        return closures.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        closures.clear();
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        invalidate(res);
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        invalidate(res);
+    }
+
+    @Override
+    public void repositoryChanged() {
+        closures.clear();
+    }
+
+    Closure get(XResource res) {
+        Closure closure = closures.get(res);
+        if (closure != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return closure;
+    }
+
+    void put(XResource res, Closure closure) {
+        if (enabled) {
+            closures.put(res, closure);
+        }
+    }
+
+    void remove(XResource res, Closure closure) {
+        closures.remove(res, closure);
+    }
+
+    private void invalidate(XResource res) {
+        for (Capability cap : res.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE)) {
+            Object name = cap.getAttributes().get(IdentityNamespace.IDENTITY_NAMESPACE);
+            Iterator<Closure> itclosures = closures.values().iterator();
+            while (itclosures.hasNext()) {
+                if (itclosures.next().names.contains(name)) {
+                    itclosures.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The mandatory identity requirements of an abstract feature and of the abstract features it requires,
+     * together with their providers in the repository. Which of them are followed depends on the environment.
+     */
+    static final class Closure {
+
+        private final Map<XResource, List<XRequirement>> requirements;
+        private final Map<XRequirement, XResource> providers;
+        private final Map<XResource, XResource> delegates;
+        private final Set<String> names;
+
+        Closure(Map<XResource, List<XRequirement>> requirements, Map<XRequirement, XResource> providers, Map<XResource, XResource> delegates, Set<String> names) {
+            this.requirements = Collections.unmodifiableMap(requirements);
+            this.providers = Collections.unmodifiableMap(providers);
+            this.delegates = Collections.unmodifiableMap(delegates);
+            this.names = Collections.unmodifiableSet(names);
+        }
+
+        /**
+         * The requirements of an abstract feature in the closure or null if the resource is no such feature
+         */
+        List<XRequirement> getRequirements(XResource res) {
+            return requirements.get(res);
+        }
+
+        /**
+         * The provider in the repository or null if there is none
+         */
+        XResource getProvider(XRequirement req) {
+            return providers.get(req);
+        }
+
+        /**
+         * The maven/module delegate of an abstract resource or null
+         */
+        XResource getDelegate(XResource res) {
+            return delegates.get(res);
+        }
+    }
+}
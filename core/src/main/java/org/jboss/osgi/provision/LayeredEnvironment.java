@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.spi.AbstractEnvironment;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+
+/**
+ * A copy-on-write view of an environment.
+ *
+ * The base environment is only read from. Resources that are installed into the view
+ * are held in an overlay, so that creating the view is O(1) and its footprint is
+ * proportional to the number of added resources.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+final class LayeredEnvironment extends AbstractEnvironment {
+
+    private final XEnvironment base;
+
+    LayeredEnvironment(XEnvironment base) {
+        if (base == null)
+            throw MESSAGES.illegalArgumentNull("base");
+        this.base = base;
+    }
+
+    XEnvironment getBaseEnvironment() {
+        return base;
+    }
+
+    @Override
+    public List<Capability> findProviders(Requirement req) {
+        List<Capability> providers = base.findProviders(req);
+        List<Capability> overlay = super.findProviders(req);
+        if (overlay.isEmpty()) {
+            return providers;
+        } else if (providers.isEmpty()) {
+            return overlay;
+        }
+        List<Capability> result = new ArrayList<Capability>(providers.size() + overlay.size());
+        result.addAll(providers);
+        result.addAll(overlay);
+        return result;
+    }
+
+    @Override
+    public Iterator<XResource> getResources(String... types) {
+        final Iterator<XResource> itbase = base.getResources(types);
+        final Iterator<XResource> itoverlay = super.getResources(types);
+        return new Iterator<XResource>() {
+
+            @Override
+            public boolean hasNext() {
+                return itbase.hasNext() || itoverlay.hasNext();
+            }
+
+            @Override
+            public XResource next() {
+                if (itbase.hasNext()) {
+                    return itbase.next();
+                } else if (itoverlay.hasNext()) {
+                    return itoverlay.next();
+                }
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public Map<Resource, Wiring> getWirings() {
+        Map<Resource, Wiring> result = new HashMap<Resource, Wiring>(base.getWirings());
+        result.putAll(super.getWirings());
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Capability;
+
+/**
+ * A bounded cache of requirements that have no provider in the repository.
+ *
+ * An entry is removed when a resource with a matching capability is added to the repository storage.
+ * Removing resources cannot create a provider and leaves the cache untouched. Maven identity
+ * requirements are never cached, because the maven delegate repository may find them remotely.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class NegativeLookupCache implements RepositoryStorageListener {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    // The missing requirements by namespace, so that an added capability is only matched against its namespace
+    private final ConcurrentMap<String, ConcurrentMap<RequirementKey, XRequirement>> missing = new ConcurrentHashMap<String, ConcurrentMap<RequirementKey, XRequirement>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    NegativeLookupCache() {
+    }
+
+    /**
+     * The maximum number of cached requirements. A value of 0 disables the cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw MESSAGES.illegalMaxSize(maxSize);
+        this.maxSize = maxSize;
+        if (size.get() > maxSize) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        for (Map<RequirementKey, XRequirement> reqs : missing.values()) {
+            for (RequirementKey key : reqs.keySet()) {
+                if (reqs.remove(key) != null) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        for (Capability cap : res.getCapabilities(null)) {
+            Map<RequirementKey, XRequirement> reqs = missing.get(cap.getNamespace());
+            if (reqs != null) {
+                for (Entry<RequirementKey, XRequirement> entry : reqs.entrySet()) {
+                    if (entry.getValue().matches(cap)) {
+                        remove(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        // no provider can appear
+    }
+
+    @Override
+    public void repositoryChanged() {
+        clear();
+    }
+
+    /**
+     * True if the requirement is known to have no provider
+     */
+    boolean isMissing(RequirementKey key) {
+        Map<RequirementKey, XRequirement> reqs = missing.get(key.getNamespace());
+        if (reqs != null && reqs.containsKey(key)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    void put(RequirementKey key, XRequirement req) {
+        if (maxSize == 0 || XResource.MAVEN_IDENTITY_NAMESPACE.equals(req.getNamespace()))
+            return;
+
+        String namespace = req.getNamespace();
+        ConcurrentMap<RequirementKey, XRequirement> reqs = missing.get(namespace);
+        if (reqs == null) {
+            ConcurrentMap<RequirementKey, XRequirement> created = new ConcurrentHashMap<RequirementKey, XRequirement>();
+            reqs = missing.putIfAbsent(namespace, created);
+            reqs = reqs != null ? reqs : created;
+        }
+        if (reqs.putIfAbsent(key, req) == null && size.incrementAndGet() > maxSize) {
+            evictOne();
+        }
+    }
+
+    void remove(RequirementKey key, XRequirement req) {
+        ConcurrentMap<RequirementKey, XRequirement> reqs = missing.get(key.getNamespace());
+        if (reqs != null && reqs.remove(key, req)) {
+            size.decrementAndGet();
+        }
+    }
+
+    private void evictOne() {
+        for (Map<RequirementKey, XRequirement> reqs : missing.values()) {
+            for (RequirementKey key : reqs.keySet()) {
+                if (reqs.remove(key) != null) {
+                    size.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+}
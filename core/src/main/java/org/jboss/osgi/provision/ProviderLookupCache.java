@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XResource;
+
+/**
+ * A cache of the repository providers selected for structurally equal requirements.
+ *
+ * The cache is shared between provisioning calls and is cleared when the repository storage changes.
+ * Requirements without a provider are not cached.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class ProviderLookupCache implements RepositoryStorageListener {
+
+    private final ConcurrentMap<RequirementKey, XCapability> providers = new ConcurrentHashMap<RequirementKey, XCapability>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean enabled;
+
+    ProviderLookupCache() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            providers.clear();
+        }
+    }
+
+    public int getSize() {
+        return providers.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        providers.clear();
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        providers.clear();
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        providers.clear();
+    }
+
+    @Override
+    public void repositoryChanged() {
+        providers.clear();
+    }
+
+    XCapability get(RequirementKey key) {
+        XCapability cap = providers.get(key);
+        if (cap != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return cap;
+    }
+
+    void put(RequirementKey key, XCapability cap) {
+        if (enabled && cap != null) {
+            providers.put(key, cap);
+        }
+    }
+
+    void remove(RequirementKey key, XCapability cap) {
+        if (cap != null) {
+            providers.remove(key, cap);
+        }
+    }
+}
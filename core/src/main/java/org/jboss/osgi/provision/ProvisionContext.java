@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * The state of a single {@link XResourceProvisioner#findResources(XEnvironment, Set)} call.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+final class ProvisionContext {
+
+    private final XEnvironment environment;
+    private final List<XResource> unresolved = new ArrayList<XResource>();
+    private final List<XResource> resources = new ArrayList<XResource>();
+    private final Set<XRequirement> unsatisfied;
+    private final Map<XRequirement, XResource> mapping = new HashMap<XRequirement, XResource>();
+    private final Set<XResource> mandatory = new HashSet<XResource>();
+    private final Map<RequirementKey, XCapability> providers;
+    private final Map<XRequirement, Set<XResource>> provisioned = new HashMap<XRequirement, Set<XResource>>();
+    private Map<Resource, List<Wire>> wiring;
+    private int rounds;
+    private int frontierCount;
+
+    private final Future<?> control;
+    private final long deadline;
+    private boolean timedOut;
+
+    ProvisionContext(XEnvironment environment, Set<XRequirement> reqs) {
+        this(environment, reqs, null, 0);
+    }
+
+    /**
+     * @param control the future of an asynchronous call or null
+     * @param deadline the {@link System#nanoTime()} after which the call times out or 0
+     */
+    ProvisionContext(XEnvironment environment, Set<XRequirement> reqs, Future<?> control, long deadline) {
+        this(environment, reqs, control, deadline, null);
+    }
+
+    /**
+     * @param providers the provider lookups shared with other calls of a batch or null
+     */
+    ProvisionContext(XEnvironment environment, Set<XRequirement> reqs, Future<?> control, long deadline, Map<RequirementKey, XCapability> providers) {
+        this.environment = environment;
+        this.unsatisfied = new LinkedHashSet<XRequirement>(reqs);
+        this.control = control;
+        this.deadline = deadline;
+        this.providers = providers != null ? providers : new HashMap<RequirementKey, XCapability>();
+    }
+
+    XEnvironment getEnvironment() {
+        return environment;
+    }
+
+    List<XResource> getUnresolved() {
+        return unresolved;
+    }
+
+    void addUnresolved(XResource res) {
+        unresolved.add(res);
+        mandatory.add(res);
+    }
+
+    List<XResource> getResources() {
+        return resources;
+    }
+
+    void addResource(XResource res) {
+        resources.add(res);
+        mandatory.add(res);
+    }
+
+    /**
+     * True if the resource is an unresolved resource or was added by the provisioner
+     */
+    boolean isMandatory(XResource res) {
+        return mandatory.contains(res);
+    }
+
+    /**
+     * The wiring of the last successful resolve or null
+     */
+    Map<Resource, List<Wire>> getWiring() {
+        return wiring;
+    }
+
+    void setWiring(Map<Resource, List<Wire>> wiring) {
+        this.wiring = wiring;
+    }
+
+    int nextRound(int frontier) {
+        frontierCount += frontier;
+        return ++rounds;
+    }
+
+    /**
+     * Abort an asynchronous call if its future was cancelled or the thread was interrupted
+     */
+    void checkCancelled() {
+        if (control != null && (control.isCancelled() || Thread.currentThread().isInterrupted()))
+            throw new CancellationException();
+    }
+
+    /**
+     * @return true if the deadline has passed
+     */
+    boolean checkDeadline() {
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            timedOut = true;
+        }
+        return timedOut;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    int getRoundCount() {
+        return rounds;
+    }
+
+    /**
+     * The total number of requirements that entered the frontier
+     */
+    int getFrontierCount() {
+        return frontierCount;
+    }
+
+    Set<XRequirement> getUnsatisfied() {
+        return unsatisfied;
+    }
+
+    Map<XRequirement, XResource> getMapping() {
+        return mapping;
+    }
+
+    /**
+     * The resources that were installed for a requirement, which is more than one for a feature closure
+     */
+    Map<XRequirement, Set<XResource>> getProvisioned() {
+        return provisioned;
+    }
+
+    void addProvisioned(XRequirement req, XResource res) {
+        Set<XResource> resources = provisioned.get(req);
+        if (resources == null) {
+            resources = new LinkedHashSet<XResource>();
+            provisioned.put(req, resources);
+        }
+        resources.add(res);
+    }
+
+    boolean hasProviderLookup(RequirementKey key) {
+        return providers.containsKey(key);
+    }
+
+    XCapability getProviderLookup(RequirementKey key) {
+        return providers.get(key);
+    }
+
+    void putProviderLookup(RequirementKey key, XCapability cap) {
+        providers.put(key, cap);
+    }
+}
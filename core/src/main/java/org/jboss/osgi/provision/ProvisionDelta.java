@@ -0,0 +1,52 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+
+/**
+ * The difference between a previous provision result and the result for a modified set of requirements.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ * @see XResourceProvisioner#findResourcesDelta(XEnvironment, ProvisionResult, Set, Set)
+ */
+public interface ProvisionDelta {
+
+    /**
+     * Get the full result for the modified set of requirements
+     */
+    ProvisionResult getResult();
+
+    /**
+     * Get the resources that were not part of the previous result
+     */
+    List<XResource> getAddedResources();
+
+    /**
+     * Get the resources of the previous result that are no longer needed
+     */
+    List<XResource> getRemovedResources();
+}
@@ -0,0 +1,68 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.Set;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Bundle;
+
+/**
+ * A listener for the phases of provisioning.
+ *
+ * Listeners are called synchronously on the provisioning thread and should return quickly,
+ * for example by committing an event to a recorder. Exceptions are logged and ignored.
+ *
+ * Every phase that takes time is reported as a begin and end pair on the same thread, so that
+ * a listener can measure the phase itself. The end of a phase is also reported when it failed,
+ * in which case the result of {@link #provisionFinished} and the bundle of {@link #bundleInstalled}
+ * are null. Phases of the same kind may be nested or run concurrently on different threads. The
+ * lookups of a batch overlap, they all begin before the repository is queried.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ * @see AbstractProvisionListener
+ */
+public interface ProvisionListener {
+
+    void provisionStarted(XEnvironment env, Set<XRequirement> reqs);
+
+    void provisionFinished(Set<XRequirement> reqs, ProvisionResult result, long nanos);
+
+    void roundStarted(int round, int frontier);
+
+    void roundFinished(int round, int frontier, boolean resolverCalled, long nanos);
+
+    void repositoryLookupStarted(XRequirement req);
+
+    void repositoryLookupFinished(XRequirement req, int providers, long nanos);
+
+    void delegateExpanded(XResource resource, XResource delegate);
+
+    void bundleInstalling(XResource resource);
+
+    void bundleInstalled(XResource resource, Bundle bundle, long nanos);
+
+    void bundleStarting(XResource resource, Bundle bundle);
+
+    void bundleStarted(XResource resource, Bundle bundle, long nanos);
+}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionLogger.LOGGER;
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Bundle;
+
+/**
+ * The registered {@link ProvisionListener}s, which isolates the caller from listener failures.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+final class ProvisionListeners implements ProvisionListener {
+
+    private final List<ProvisionListener> listeners = new CopyOnWriteArrayList<ProvisionListener>();
+
+    void add(ProvisionListener listener) {
+        if (listener == null)
+            throw MESSAGES.illegalArgumentNull("listener");
+        listeners.add(listener);
+    }
+
+    void remove(ProvisionListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    @Override
+    public void provisionStarted(XEnvironment env, Set<XRequirement> reqs) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.provisionStarted(env, reqs);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void provisionFinished(Set<XRequirement> reqs, ProvisionResult result, long nanos) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.provisionFinished(reqs, result, nanos);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void roundStarted(int round, int frontier) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.roundStarted(round, frontier);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void roundFinished(int round, int frontier, boolean resolverCalled, long nanos) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.roundFinished(round, frontier, resolverCalled, nanos);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void repositoryLookupStarted(XRequirement req) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.repositoryLookupStarted(req);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void repositoryLookupFinished(XRequirement req, int providers, long nanos) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.repositoryLookupFinished(req, providers, nanos);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void delegateExpanded(XResource resource, XResource delegate) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.delegateExpanded(resource, delegate);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void bundleInstalling(XResource resource) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.bundleInstalling(resource);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void bundleInstalled(XResource resource, Bundle bundle, long nanos) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.bundleInstalled(resource, bundle, nanos);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void bundleStarting(XResource resource, Bundle bundle) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.bundleStarting(resource, bundle);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+
+    @Override
+    public void bundleStarted(XResource resource, Bundle bundle, long nanos) {
+        for (ProvisionListener listener : listeners) {
+            try {
+                listener.bundleStarted(resource, bundle, nanos);
+            } catch (RuntimeException ex) {
+                LOGGER.listenerFailed(ex, listener);
+            }
+        }
+    }
+}
@@ -24,12 +24,16 @@ package org.jboss.osgi.provision;
 
 import static org.jboss.logging.Logger.Level.INFO;
 import static org.jboss.logging.Logger.Level.WARN;
+
+import java.net.URL;
+
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageLogger;
+import org.jboss.osgi.repository.RepositoryStorage;
 import org.osgi.service.resolver.ResolutionException;
 
 /**
@@ -53,4 +57,16 @@ public interface ProvisionLogger extends BasicLogger {
     @LogMessage(level = WARN)
     @Message(id = 20301, value = "Cannot resolve provisioner result")
     void cannotResolveResultResources(@Cause ResolutionException ex);
+
+    @LogMessage(level = WARN)
+    @Message(id = 20302, value = "Provision listener failed: %s")
+    void listenerFailed(@Cause Throwable cause, ProvisionListener listener);
+
+    @LogMessage(level = WARN)
+    @Message(id = 20303, value = "Cannot track the modifications of repository storage, provision caches are disabled: %s")
+    void cannotTrackRepositoryStorage(RepositoryStorage storage);
+
+    @LogMessage(level = WARN)
+    @Message(id = 20304, value = "Ignoring binary feature that is older than its source: %s")
+    void warnStaleBinaryFeature(URL binary);
 }
\ No newline at end of file
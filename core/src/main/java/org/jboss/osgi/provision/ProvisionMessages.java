@@ -22,9 +22,11 @@
 
 package org.jboss.osgi.provision;
 
+import java.io.IOException;
 import java.util.Set;
 
 import org.jboss.logging.Messages;
+import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageBundle;
 import org.jboss.osgi.resolver.XRequirement;
@@ -52,4 +54,31 @@ public interface ProvisionMessages {
 
     @Message(id = 20352, value = "Unsatisfied requirements: %s")
     IllegalStateException unsatiesfiedRequirements(Set<XRequirement> reqs);
+
+    @Message(id = 20353, value = "Cannot find providers in repository")
+    IllegalStateException cannotFindProviders(@Cause Throwable cause);
+
+    @Message(id = 20354, value = "Cannot read feature: %s")
+    IllegalStateException cannotReadFeature(@Cause Throwable cause, String feature);
+
+    @Message(id = 20355, value = "Invalid binary repository format")
+    IllegalStateException invalidRepositoryFormat(@Cause Throwable cause);
+
+    @Message(id = 20356, value = "Cannot provision: %s")
+    IllegalStateException cannotProvision(@Cause Throwable cause, Set<XRequirement> reqs);
+
+    @Message(id = 20357, value = "Unsupported attribute value: %s=%s")
+    IllegalArgumentException unsupportedAttributeValue(String name, Object value);
+
+    @Message(id = 20358, value = "Unsupported directive value: %s=%s")
+    IllegalArgumentException unsupportedDirectiveValue(String name, String value);
+
+    @Message(id = 20359, value = "Illegal maximum size: %d")
+    IllegalArgumentException illegalMaxSize(int maxSize);
+
+    @Message(id = 20360, value = "Cannot register metrics: %s")
+    IllegalStateException cannotRegisterMetrics(@Cause Throwable cause, String name);
+
+    @Message(id = 20361, value = "Prefetch cancelled: %s")
+    IOException prefetchCancelled(@Cause Throwable cause, XResource resource);
 }
\ No newline at end of file
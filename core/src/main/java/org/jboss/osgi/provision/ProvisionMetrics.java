@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-phase timers and counters of an {@link AbstractResourceProvisioner}.
+ *
+ * All updates are lock-free. The phase times are kept in histograms with
+ * eight sub-buckets per power of two, so that percentiles are accurate to 12.5%.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class ProvisionMetrics implements ProvisionMetricsMBean {
+
+    public enum Phase {
+        /** A complete call to findResources */
+        TOTAL,
+        /** Creating the environment view */
+        CLONE_ENVIRONMENT,
+        /** Finding the providers of a round in the repository */
+        REPOSITORY_LOOKUP,
+        /** A resolver call of a round */
+        RESOLVE,
+        /** The resolver call that verifies the result */
+        VERIFY
+    }
+
+    private final Map<Phase, Histogram> histograms = new EnumMap<Phase, Histogram>(Phase.class);
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong resolverCalls = new AtomicLong();
+    private final AtomicLong resourcesAdded = new AtomicLong();
+    private final AtomicLong unsatisfied = new AtomicLong();
+
+    public ProvisionMetrics() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new Histogram());
+        }
+    }
+
+    void record(Phase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    void addCall(int resources, int unsatisfied) {
+        calls.incrementAndGet();
+        resourcesAdded.addAndGet(resources);
+        this.unsatisfied.addAndGet(unsatisfied);
+    }
+
+    void addRounds(int count) {
+        rounds.addAndGet(count);
+    }
+
+    void addLookups(int count) {
+        lookups.addAndGet(count);
+    }
+
+    void addResolverCall() {
+        resolverCalls.incrementAndGet();
+    }
+
+    @Override
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    @Override
+    public long getRoundCount() {
+        return rounds.get();
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    @Override
+    public long getResolverCallCount() {
+        return resolverCalls.get();
+    }
+
+    @Override
+    public long getResourcesAddedCount() {
+        return resourcesAdded.get();
+    }
+
+    @Override
+    public long getUnsatisfiedCount() {
+        return unsatisfied.get();
+    }
+
+    @Override
+    public String[] getPhaseNames() {
+        Phase[] phases = Phase.values();
+        String[] names = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            names[i] = phases[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public long getPhaseCount(String phase) {
+        return getHistogram(phase).count.get();
+    }
+
+    @Override
+    public long getMeanNanos(String phase) {
+        Histogram histogram = getHistogram(phase);
+        long count = histogram.count.get();
+        return count > 0 ? histogram.sum.get() / count : 0;
+    }
+
+    @Override
+    public long getMaxNanos(String phase) {
+        return getHistogram(phase).max.get();
+    }
+
+    @Override
+    public long getPercentileNanos(String phase, double percentile) {
+        return getPercentileNanos(Phase.valueOf(phase), percentile);
+    }
+
+    public long getPercentileNanos(Phase phase, double percentile) {
+        if (phase == null)
+            throw MESSAGES.illegalArgumentNull("phase");
+        return histograms.get(phase).getPercentile(percentile);
+    }
+
+    @Override
+    public long[] getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    @Override
+    public long[] getP95Nanos() {
+        return getPercentileNanos(95);
+    }
+
+    @Override
+    public long[] getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        calls.set(0);
+        rounds.set(0);
+        lookups.set(0);
+        resolverCalls.set(0);
+        resourcesAdded.set(0);
+        unsatisfied.set(0);
+    }
+
+    private long[] getPercentileNanos(double percentile) {
+        Phase[] phases = Phase.values();
+        long[] result = new long[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            result[i] = histograms.get(phases[i]).getPercentile(percentile);
+        }
+        return result;
+    }
+
+    private Histogram getHistogram(String phase) {
+        if (phase == null)
+            throw MESSAGES.illegalArgumentNull("phase");
+        return histograms.get(Phase.valueOf(phase));
+    }
+
+    static final class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = 62 * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(getIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(getUpperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        // Values below 8 map to themselves, larger values to one of eight sub-buckets of their power of two
+        static int getIndex(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) ((value >>> (exp - 3)) & (SUB_BUCKETS - 1));
+            return (exp - 2) * SUB_BUCKETS + sub;
+        }
+
+        static long getUpperBound(int index) {
+            if (index < SUB_BUCKETS)
+                return index;
+            int exp = index / SUB_BUCKETS + 2;
+            long sub = index % SUB_BUCKETS;
+            long lower = (SUB_BUCKETS + sub) << (exp - 3);
+            return lower + (1L << (exp - 3)) - 1;
+        }
+    }
+}
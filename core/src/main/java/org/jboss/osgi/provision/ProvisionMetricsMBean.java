@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+/**
+ * The management interface of the {@link ProvisionMetrics}.
+ *
+ * Times are reported in nanoseconds for the phases in {@link ProvisionMetrics.Phase}.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public interface ProvisionMetricsMBean {
+
+    long getCallCount();
+
+    long getRoundCount();
+
+    long getLookupCount();
+
+    long getResolverCallCount();
+
+    long getResourcesAddedCount();
+
+    long getUnsatisfiedCount();
+
+    String[] getPhaseNames();
+
+    long getPhaseCount(String phase);
+
+    long getMeanNanos(String phase);
+
+    long getMaxNanos(String phase);
+
+    /**
+     * Get the time below which the given percentile (0-100) of the phase measurements fall.
+     */
+    long getPercentileNanos(String phase, double percentile);
+
+    /**
+     * Get the median time of every phase, in the order of {@link #getPhaseNames()}.
+     */
+    long[] getP50Nanos();
+
+    /**
+     * Get the 95th percentile time of every phase, in the order of {@link #getPhaseNames()}.
+     */
+    long[] getP95Nanos();
+
+    /**
+     * Get the 99th percentile time of every phase, in the order of {@link #getPhaseNames()}.
+     */
+    long[] getP99Nanos();
+
+    void reset();
+}
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+
+/**
+ * An environment together with the requirements to provision for it.
+ * The request keeps a copy of the given requirements.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ * @see XResourceProvisioner#findResources(List)
+ */
+public final class ProvisionRequest {
+
+    private final XEnvironment environment;
+    private final Set<XRequirement> requirements;
+
+    public ProvisionRequest(XEnvironment environment, Set<XRequirement> requirements) {
+        if (environment == null)
+            throw MESSAGES.illegalArgumentNull("environment");
+        if (requirements == null)
+            throw MESSAGES.illegalArgumentNull("requirements");
+        this.environment = environment;
+        this.requirements = Collections.unmodifiableSet(new LinkedHashSet<XRequirement>(requirements));
+    }
+
+    public XEnvironment getEnvironment() {
+        return environment;
+    }
+
+    public Set<XRequirement> getRequirements() {
+        return requirements;
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisionRequest" + requirements;
+    }
+}
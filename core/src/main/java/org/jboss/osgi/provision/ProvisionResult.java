@@ -25,6 +25,8 @@ import java.util.Set;
 
 import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
 
 /**
  * The Provision result
@@ -34,9 +36,31 @@ import org.jboss.osgi.resolver.XResource;
  */
 public interface ProvisionResult {
 
+    /**
+     * The completion status of a provision result
+     */
+    enum Status {
+        /** All rounds were processed */
+        COMPLETE,
+        /** The deadline passed, the result is partial */
+        TIMED_OUT
+    }
+
     Map<XRequirement, XResource> getRequirementMapping();
 
     List<XResource> getResources();
 
     Set<XRequirement> getUnsatisfiedRequirements();
+
+    /**
+     * Get the wiring that verified the result resources.
+     *
+     * @return the wiring or null if the result was not verified (yet)
+     */
+    Map<Resource, List<Wire>> getWiring();
+
+    /**
+     * Get the completion status of this result
+     */
+    Status getStatus();
 }
@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.provision.AbstractResourceProvisioner.AbstractProvisionResult;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResource.State;
+import org.osgi.resource.Requirement;
+
+/**
+ * A bounded LRU cache of provision results.
+ *
+ * Results are keyed by the structure of the requested requirements together with the
+ * environment, its generation and the generation of the repository. A cached result is remapped to the
+ * requirement instances of the request that hits it.
+ *
+ * Lookups do not lock. The least recently used entry is evicted by a scan when the cache is full,
+ * which is cheap for the small sizes this cache is meant for.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class ProvisionResultCache implements RepositoryStorageListener {
+
+    private final ConcurrentMap<Key, CacheEntry> entries = new ConcurrentHashMap<Key, CacheEntry>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxSize;
+
+    ProvisionResultCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The maximum number of cached results. A value of 0 disables the cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw MESSAGES.illegalMaxSize(maxSize);
+        this.maxSize = maxSize;
+        if (entries.size() > maxSize) {
+            entries.clear();
+        }
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        clear();
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        clear();
+    }
+
+    @Override
+    public void repositoryChanged() {
+        clear();
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Create the key for the given requirements or null if the request cannot be cached.
+     */
+    static Key createKey(Set<XRequirement> reqs, XEnvironment env, long envGeneration, long repoGeneration) {
+        Set<RequirementKey> reqkeys = new HashSet<RequirementKey>();
+        Set<RequirementKey> siblings = new HashSet<RequirementKey>();
+        Set<XResource> owners = new HashSet<XResource>();
+        for (XRequirement req : reqs) {
+            if (!reqkeys.add(new RequirementKey(req)))
+                return null;
+            XResource res = req.getResource();
+            if (res.getState() == State.INSTALLED) {
+                owners.add(res);
+            } else {
+                for (Requirement sibling : res.getRequirements(null)) {
+                    siblings.add(new RequirementKey(sibling));
+                }
+            }
+        }
+        return new Key(reqkeys, siblings, owners, env, envGeneration, repoGeneration);
+    }
+
+    ProvisionResult get(Key key, Set<XRequirement> reqs) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.remap(reqs);
+    }
+
+    /**
+     * Remap a result to the structurally equal requirements of another request.
+     */
+    static ProvisionResult remap(ProvisionResult result, Set<XRequirement> resultReqs, Set<XRequirement> reqs) {
+        return new CacheEntry(resultReqs, result).remap(reqs);
+    }
+
+    void put(Key key, Set<XRequirement> reqs, ProvisionResult result) {
+        if (maxSize > 0) {
+            CacheEntry entry = new CacheEntry(reqs, result);
+            entry.lastAccess = clock.incrementAndGet();
+            entries.put(key, entry);
+            while (entries.size() > maxSize) {
+                evictEldest();
+            }
+        }
+    }
+
+    private void evictEldest() {
+        Entry<Key, CacheEntry> eldest = null;
+        for (Entry<Key, CacheEntry> entry : entries.entrySet()) {
+            if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null) {
+            entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    static final class Key {
+
+        private final Set<RequirementKey> reqs;
+        private final Set<RequirementKey> siblings;
+        private final Set<XResource> owners;
+        private final XEnvironment env;
+        private final long envGeneration;
+        private final long repoGeneration;
+        private final int hashCode;
+
+        Key(Set<RequirementKey> reqs, Set<RequirementKey> siblings, Set<XResource> owners, XEnvironment env, long envGeneration, long repoGeneration) {
+            this.reqs = reqs;
+            this.siblings = siblings;
+            this.owners = owners;
+            this.env = env;
+            this.envGeneration = envGeneration;
+            this.repoGeneration = repoGeneration;
+            int result = reqs.hashCode();
+            result = 31 * result + siblings.hashCode();
+            result = 31 * result + owners.hashCode();
+            result = 31 * result + System.identityHashCode(env);
+            result = 31 * result + (int) (envGeneration ^ (envGeneration >>> 32));
+            result = 31 * result + (int) (repoGeneration ^ (repoGeneration >>> 32));
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return env == other.env && envGeneration == other.envGeneration && repoGeneration == other.repoGeneration && reqs.equals(other.reqs)
+                    && siblings.equals(other.siblings) && owners.equals(other.owners);
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final Map<XRequirement, RequirementKey> roots = new HashMap<XRequirement, RequirementKey>();
+        private final ProvisionResult result;
+        private volatile long lastAccess;
+
+        CacheEntry(Set<XRequirement> reqs, ProvisionResult result) {
+            for (XRequirement req : reqs) {
+                roots.put(req, new RequirementKey(req));
+            }
+            this.result = result;
+        }
+
+        ProvisionResult remap(Set<XRequirement> reqs) {
+            Map<RequirementKey, XRequirement> current = new HashMap<RequirementKey, XRequirement>();
+            for (XRequirement req : reqs) {
+                current.put(new RequirementKey(req), req);
+            }
+            Map<XRequirement, XResource> mapping = new HashMap<XRequirement, XResource>();
+            for (Entry<XRequirement, XResource> aux : result.getRequirementMapping().entrySet()) {
+                mapping.put(remap(aux.getKey(), current), aux.getValue());
+            }
+            Set<XRequirement> unsatisfied = new LinkedHashSet<XRequirement>();
+            for (XRequirement req : result.getUnsatisfiedRequirements()) {
+                unsatisfied.add(remap(req, current));
+            }
+            AbstractProvisionResult remapped = new AbstractProvisionResult(mapping, unsatisfied, result.getResources(), result.getWiring());
+            remapped.setStatus(result.getStatus());
+            if (result instanceof AbstractProvisionResult) {
+                AbstractProvisionResult aux = (AbstractProvisionResult) result;
+                if (aux.getProvisionedFor() != null) {
+                    Map<XRequirement, Set<XResource>> provisionedFor = new HashMap<XRequirement, Set<XResource>>();
+                    for (Entry<XRequirement, Set<XResource>> entry : aux.getProvisionedFor().entrySet()) {
+                        provisionedFor.put(remap(entry.getKey(), current), entry.getValue());
+                    }
+                    remapped.setProvisioning(reqs, aux.getProvisioned(), provisionedFor);
+                }
+            }
+            return remapped;
+        }
+
+        // Requirements of repository resources are shared, only the requested ones are remapped
+        private XRequirement remap(XRequirement req, Map<RequirementKey, XRequirement> current) {
+            RequirementKey key = roots.get(req);
+            return key != null ? current.get(key) : req;
+        }
+    }
+}
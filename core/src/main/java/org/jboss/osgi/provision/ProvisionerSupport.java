@@ -25,14 +25,37 @@ package org.jboss.osgi.provision;
 import static org.jboss.osgi.provision.ProvisionLogger.LOGGER;
 import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import org.jboss.osgi.provision.ContentPrefetcher.PrefetchedContent;
 import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.RepositoryXMLReader;
@@ -45,6 +68,11 @@ import org.jboss.osgi.resolver.XRequirementBuilder;
 import org.jboss.osgi.resolver.XResource;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.service.repository.RepositoryContent;
 
 /**
  * @author Thomas.Diesler@jboss.com
@@ -52,10 +80,15 @@ import org.osgi.framework.BundleContext;
  */
 public class ProvisionerSupport {
 
+    public static final int IMPORT_BATCH_SIZE = 256;
+
     private final BundleContext syscontext;
     private final ResourceInstaller installer;
     private final XResourceProvisioner provisioner;
     private final XEnvironment environment;
+    private volatile Executor installExecutor;
+    private volatile ContentPrefetcher contentPrefetcher;
+    private final ProvisionListeners listeners = new ProvisionListeners();
 
     public interface ResourceHandle {
 
@@ -83,6 +116,42 @@ public class ProvisionerSupport {
         return provisioner.getRepository();
     }
 
+    public Executor getInstallExecutor() {
+        return installExecutor;
+    }
+
+    /**
+     * Set the executor that installs the provisioned bundles concurrently and starts them
+     * concurrently per dependency level. Without an executor this happens sequentially.
+     */
+    public void setInstallExecutor(Executor installExecutor) {
+        this.installExecutor = installExecutor;
+    }
+
+    public ContentPrefetcher getContentPrefetcher() {
+        return contentPrefetcher;
+    }
+
+    /**
+     * Set the prefetcher that fetches the content of all provisioned resources
+     * concurrently. The resource installer then reads the content from the local copies.
+     * The prefetcher may use the install executor, see {@link ContentPrefetcher}.
+     */
+    public void setContentPrefetcher(ContentPrefetcher contentPrefetcher) {
+        this.contentPrefetcher = contentPrefetcher;
+    }
+
+    /**
+     * Add a listener for the install and start of the provisioned bundles.
+     */
+    public void addListener(ProvisionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ProvisionListener listener) {
+        listeners.remove(listener);
+    }
+
     public List<ResourceHandle> installCapabilities(String namespace, String... features) throws Exception {
         if (namespace == null)
             throw MESSAGES.illegalArgumentNull("namespace");
@@ -106,59 +175,514 @@ public class ProvisionerSupport {
         if (!unsat.isEmpty())
             throw MESSAGES.unsatiesfiedRequirements(unsat);
 
-        // Install the provision result
-        List<ResourceHandle> reshandles = new ArrayList<ResourceHandle>();
-        for (XResource res : result.getResources()) {
-            final Bundle bundle = installer.installResource(syscontext, res);
-            ResourceHandle handle = new ResourceHandle() {
+        // Install the provision result and start the bundles by dependency level
+        List<XResource> resources = result.getResources();
+        ContentPrefetcher prefetcher = contentPrefetcher;
+        PrefetchedContent prefetched = prefetcher != null ? prefetcher.prefetch(resources) : null;
+        List<ResourceHandle> reshandles;
+        try {
+            reshandles = installResources(resources, prefetched);
+        } finally {
+            if (prefetched != null) {
+                prefetched.close();
+            }
+        }
+        try {
+            startResources(resources, reshandles, result.getWiring());
+        } catch (Exception ex) {
+            uninstallResources(reshandles);
+            throw ex;
+        }
+        return reshandles;
+    }
 
+    private List<ResourceHandle> installResources(List<XResource> resources, final PrefetchedContent prefetched) throws Exception {
+        List<FutureTask<ResourceHandle>> tasks = new ArrayList<FutureTask<ResourceHandle>>();
+        for (final XResource res : resources) {
+            tasks.add(new FutureTask<ResourceHandle>(new Callable<ResourceHandle>() {
                 @Override
-                @SuppressWarnings("unchecked")
-                public <T> T adapt(Class<T> type) {
-                    return (T) (type == Bundle.class ? bundle : null);
+                public ResourceHandle call() throws Exception {
+                    return installResource(res, prefetched);
                 }
+            }));
+        }
+        execute(tasks);
 
-                @Override
-                public void uninstall() {
-                    try {
-                        bundle.uninstall();
-                    } catch (Exception ex) {
-                        LOGGER.warnf(ex, "Cannot uninstall bundle: %s", bundle);
+        // Roll back the installed resources if one of them failed
+        List<ResourceHandle> reshandles = new ArrayList<ResourceHandle>();
+        Exception failure = null;
+        for (FutureTask<ResourceHandle> task : tasks) {
+            try {
+                reshandles.add(task.get());
+            } catch (ExecutionException ex) {
+                failure = failure != null ? failure : getCause(ex);
+            }
+        }
+        if (failure != null) {
+            uninstallResources(reshandles);
+            throw failure;
+        }
+        return reshandles;
+    }
+
+    private ResourceHandle installResource(final XResource res, PrefetchedContent prefetched) throws Exception {
+        long start = System.nanoTime();
+        listeners.bundleInstalling(res);
+        Bundle installed = null;
+        try {
+            XResource installable = prefetched != null && res instanceof RepositoryContent ? getPrefetchedResource(res, prefetched) : res;
+            installed = installer.installResource(syscontext, installable);
+        } finally {
+            listeners.bundleInstalled(res, installed, System.nanoTime() - start);
+        }
+        final Bundle bundle = installed;
+        return new ResourceHandle() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> type) {
+                if (type == Bundle.class)
+                    return (T) bundle;
+                return (T) (type == XResource.class ? res : null);
+            }
+
+            @Override
+            public void uninstall() {
+                try {
+                    bundle.uninstall();
+                } catch (Exception ex) {
+                    LOGGER.warnf(ex, "Cannot uninstall bundle: %s", bundle);
+                }
+            }
+        };
+    }
+
+    private XResource getPrefetchedResource(XResource res, PrefetchedContent prefetched) {
+        return new PrefetchedResourceHandler(res, prefetched).proxy;
+    }
+
+    private static Object newProxy(Object target, InvocationHandler handler) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> clazz = target.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            interfaces.addAll(Arrays.asList(clazz.getInterfaces()));
+        }
+        ClassLoader classLoader = target.getClass().getClassLoader();
+        return Proxy.newProxyInstance(classLoader, interfaces.toArray(new Class<?>[interfaces.size()]), handler);
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * A view of the resource whose {@link RepositoryContent} is read from the prefetched local copy,
+     * so that the installer does not fetch it again. The view implements the interfaces of the resource
+     * and is only equal to itself. Its capabilities and requirements are views that return it as their resource.
+     */
+    private static final class PrefetchedResourceHandler implements InvocationHandler {
+
+        private final XResource res;
+        private final PrefetchedContent prefetched;
+        private final XResource proxy;
+        private final Map<Object, Object> views = new IdentityHashMap<Object, Object>();
+
+        PrefetchedResourceHandler(XResource res, PrefetchedContent prefetched) {
+            this.res = res;
+            this.prefetched = prefetched;
+            this.proxy = (XResource) newProxy(res, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object identity = invokeIdentity(proxy, method, args);
+            if (identity != null)
+                return identity;
+            if (method.getName().equals("getContent") && method.getParameterTypes().length == 0) {
+                InputStream input = null;
+                try {
+                    input = prefetched.getContent(res);
+                } catch (IOException ex) {
+                    LOGGER.debugf(ex, "Cannot read prefetched content: %s", res);
+                }
+                if (input != null) {
+                    return input;
+                }
+            }
+            return getView(invokeTarget(res, method, args));
+        }
+
+        private Object getView(Object result) {
+            if (result == res)
+                return proxy;
+            if (result instanceof Capability || result instanceof Requirement)
+                return getElementView(result);
+            if (result instanceof List) {
+                List<Object> list = new ArrayList<Object>();
+                for (Object element : (List<?>) result) {
+                    list.add(getView(element));
+                }
+                return Collections.unmodifiableList(list);
+            }
+            return result;
+        }
+
+        private synchronized Object getElementView(final Object element) {
+            Object view = views.get(element);
+            if (view == null) {
+                view = newProxy(element, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object identity = invokeIdentity(proxy, method, args);
+                        if (identity != null)
+                            return identity;
+                        if (method.getName().equals("getResource") && method.getParameterTypes().length == 0)
+                            return PrefetchedResourceHandler.this.proxy;
+                        Object result = invokeTarget(element, method, args);
+                        return result == element ? proxy : result;
                     }
+                });
+                views.put(element, view);
+            }
+            return view;
+        }
+
+        // A view is only equal to itself, so that it is not mistaken for the resource it wraps
+        private static Object invokeIdentity(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("equals") && method.getParameterTypes().length == 1)
+                return proxy == args[0];
+            if (method.getName().equals("hashCode") && method.getParameterTypes().length == 0)
+                return System.identityHashCode(proxy);
+            return null;
+        }
+    }
+
+    private void startResources(List<XResource> resources, List<ResourceHandle> reshandles, Map<Resource, List<Wire>> wiring) throws Exception {
+        for (List<ResourceHandle> level : getStartLevels(resources, reshandles, wiring)) {
+            List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+            for (final ResourceHandle handle : level) {
+                tasks.add(new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.nanoTime();
+                        XResource res = handle.adapt(XResource.class);
+                        Bundle bundle = handle.adapt(Bundle.class);
+                        listeners.bundleStarting(res, bundle);
+                        try {
+                            bundle.start();
+                        } finally {
+                            listeners.bundleStarted(res, bundle, System.nanoTime() - start);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            execute(tasks);
+
+            Exception failure = null;
+            for (FutureTask<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException ex) {
+                    failure = failure != null ? failure : getCause(ex);
                 }
-            };
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Group the handles in levels, such that every resource is wired only to resources in lower levels
+     * or to resources of the same wiring cycle. Without a wiring every resource gets its own level in result order.
+     */
+    private List<List<ResourceHandle>> getStartLevels(List<XResource> resources, List<ResourceHandle> reshandles, Map<Resource, List<Wire>> wiring) {
+        List<List<ResourceHandle>> levels = new ArrayList<List<ResourceHandle>>();
+        if (wiring == null) {
+            for (ResourceHandle handle : reshandles) {
+                levels.add(Collections.singletonList(handle));
+            }
+            return levels;
+        }
+
+        Map<Resource, Set<Resource>> dependencies = new LinkedHashMap<Resource, Set<Resource>>();
+        for (Resource res : resources) {
+            dependencies.put(res, new LinkedHashSet<Resource>());
+        }
+        for (Entry<Resource, Set<Resource>> entry : dependencies.entrySet()) {
+            List<Wire> wires = wiring.get(entry.getKey());
+            for (Wire wire : wires != null ? wires : Collections.<Wire> emptyList()) {
+                Resource provider = wire.getProvider();
+                if (provider != entry.getKey() && dependencies.containsKey(provider)) {
+                    entry.getValue().add(provider);
+                }
+            }
+        }
 
-            reshandles.add(handle);
+        Map<Resource, Integer> levelIndex = getComponentLevels(dependencies);
+        for (int i = 0; i < resources.size(); i++) {
+            int level = levelIndex.get(resources.get(i));
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<ResourceHandle>());
+            }
+            levels.get(level).add(reshandles.get(i));
+        }
+        return levels;
+    }
+
+    /**
+     * Find the strongly connected components of the dependency graph with Tarjan's algorithm and assign each
+     * component the level above its highest dependency. The resources of a component share its level.
+     */
+    private Map<Resource, Integer> getComponentLevels(Map<Resource, Set<Resource>> dependencies) {
+        Map<Resource, Integer> levels = new HashMap<Resource, Integer>();
+        Map<Resource, Integer> index = new HashMap<Resource, Integer>();
+        Map<Resource, Integer> lowlink = new HashMap<Resource, Integer>();
+        Deque<Resource> stack = new ArrayDeque<Resource>();
+        Set<Resource> onstack = new HashSet<Resource>();
+        for (Resource root : dependencies.keySet()) {
+            if (index.containsKey(root))
+                continue;
+
+            // Iterative depth first walk, the path holds the resources whose dependencies are being visited
+            Deque<Resource> path = new ArrayDeque<Resource>();
+            Deque<Iterator<Resource>> iterators = new ArrayDeque<Iterator<Resource>>();
+            Resource next = root;
+            while (next != null || !path.isEmpty()) {
+                if (next != null) {
+                    index.put(next, index.size());
+                    lowlink.put(next, index.get(next));
+                    stack.push(next);
+                    onstack.add(next);
+                    path.push(next);
+                    iterators.push(dependencies.get(next).iterator());
+                    next = null;
+                    continue;
+                }
+                Resource res = path.peek();
+                Iterator<Resource> itdeps = iterators.peek();
+                if (itdeps.hasNext()) {
+                    Resource dep = itdeps.next();
+                    if (!index.containsKey(dep)) {
+                        next = dep;
+                    } else if (onstack.contains(dep)) {
+                        lowlink.put(res, Math.min(lowlink.get(res), index.get(dep)));
+                    }
+                    continue;
+                }
+                path.pop();
+                iterators.pop();
+                if (!path.isEmpty()) {
+                    Resource parent = path.peek();
+                    lowlink.put(parent, Math.min(lowlink.get(parent), lowlink.get(res)));
+                }
+                if (lowlink.get(res).equals(index.get(res))) {
+                    // The dependencies outside the component have already been assigned a level
+                    List<Resource> component = new ArrayList<Resource>();
+                    Resource member;
+                    do {
+                        member = stack.pop();
+                        onstack.remove(member);
+                        component.add(member);
+                    } while (member != res);
+                    int level = 0;
+                    for (Resource comp : component) {
+                        for (Resource dep : dependencies.get(comp)) {
+                            Integer deplevel = levels.get(dep);
+                            if (deplevel != null) {
+                                level = Math.max(level, deplevel + 1);
+                            }
+                        }
+                    }
+                    for (Resource comp : component) {
+                        levels.put(comp, level);
+                    }
+                }
+            }
         }
-        // Start the provisioned bundles
+        return levels;
+    }
+
+    private void uninstallResources(List<ResourceHandle> reshandles) {
         for (ResourceHandle handle : reshandles) {
-            Bundle bundle = handle.adapt(Bundle.class);
-            bundle.start();
+            handle.uninstall();
         }
-        return reshandles;
+    }
+
+    private void execute(List<? extends FutureTask<?>> tasks) {
+        Executor executor = installExecutor;
+        for (FutureTask<?> task : tasks) {
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                task.run();
+            }
+        }
+    }
+
+    private Exception getCause(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return cause instanceof Exception ? (Exception) cause : ex;
     }
 
     public void populateRepository(ClassLoader classLoader, String... features) throws IOException {
+        populateRepository(null, classLoader, features);
+    }
+
+    /**
+     * Populate the repository with the resources of the given features.
+     *
+     * The feature files are parsed on the given executor, or sequentially without one.
+     * Resources with an identity that is already present are skipped and the remaining
+     * resources are added to the storage in batches of {@link #IMPORT_BATCH_SIZE}. With an
+     * {@link AbstractResourceProvisioner} the resources are added through its tracking storage
+     * and overlapping imports are serialized.
+     */
+    public void populateRepository(Executor executor, final ClassLoader classLoader, String... features) throws IOException {
         if (features == null)
             throw MESSAGES.illegalArgumentNull("features");
 
-        for (String feature : features) {
-            InputStream input = getFeatureResource(classLoader, feature);
-            if (input != null) {
-                RepositoryReader reader = RepositoryXMLReader.create(input);
-                XResource auxres = reader.nextResource();
-                while (auxres != null) {
+        // Parse the feature files concurrently
+        List<FutureTask<List<XResource>>> tasks = new ArrayList<FutureTask<List<XResource>>>();
+        for (final String feature : features) {
+            FutureTask<List<XResource>> task = new FutureTask<List<XResource>>(new Callable<List<XResource>>() {
+                @Override
+                public List<XResource> call() throws Exception {
+                    return readFeature(classLoader, feature);
+                }
+            });
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                task.run();
+            }
+            tasks.add(task);
+        }
+
+        // Add the resources in feature order through the tracking storage, if there is one
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        RepositoryIndex index = null;
+        if (provisioner instanceof AbstractResourceProvisioner) {
+            AbstractResourceProvisioner abstractProvisioner = (AbstractResourceProvisioner) provisioner;
+            TrackingRepositoryStorage tracking = abstractProvisioner.getTrackingStorage();
+            if (tracking != null) {
+                tracking.synchronize();
+                storage = tracking;
+                index = abstractProvisioner.getRepositoryIndex();
+            }
+        }
+
+        // Overlapping imports must not add the same identity twice
+        synchronized (storage) {
+            Set<String> identities = new HashSet<String>();
+            List<XResource> batch = new ArrayList<XResource>();
+            for (int i = 0; i < features.length; i++) {
+                List<XResource> resources;
+                try {
+                    resources = tasks.get(i).get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw MESSAGES.cannotReadFeature(ex, features[i]);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    throw MESSAGES.cannotReadFeature(cause, features[i]);
+                }
+                for (XResource auxres : resources) {
                     XIdentityCapability icap = auxres.getIdentityCapability();
                     String nsvalue = (String) icap.getAttribute(icap.getNamespace());
-                    XRequirement ireq = XRequirementBuilder.create(icap.getNamespace(), nsvalue).getRequirement();
-                    RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
-                    if (storage.findProviders(ireq).isEmpty()) {
-                        storage.addResource(auxres);
+                    if (identities.add(icap.getNamespace() + ":" + nsvalue) && !isPresent(storage, index, icap.getNamespace(), nsvalue)) {
+                        batch.add(auxres);
+                        if (batch.size() == IMPORT_BATCH_SIZE) {
+                            addResources(storage, batch);
+                            batch.clear();
+                        }
                     }
+                }
+            }
+            addResources(storage, batch);
+        }
+    }
+
+    // The index only answers positively, an empty or missing index result is checked in the storage
+    private boolean isPresent(RepositoryStorage storage, RepositoryIndex index, String namespace, String nsvalue) {
+        XRequirement ireq = XRequirementBuilder.create(namespace, nsvalue).getRequirement();
+        Collection<Capability> providers = index != null ? index.findProviders(ireq) : null;
+        if (providers != null && !providers.isEmpty())
+            return true;
+        return !storage.findProviders(ireq).isEmpty();
+    }
+
+    private List<XResource> readFeature(ClassLoader classLoader, String feature) throws IOException {
+        List<XResource> resources = new ArrayList<XResource>();
+        RepositoryReader reader = getFeatureReader(classLoader, feature);
+        if (reader != null) {
+            try {
+                XResource auxres = reader.nextResource();
+                while (auxres != null) {
+                    resources.add(auxres);
                     auxres = reader.nextResource();
                 }
+            } finally {
+                reader.close();
             }
         }
+        return resources;
+    }
+
+    private void addResources(RepositoryStorage storage, List<XResource> batch) {
+        if (storage instanceof TrackingRepositoryStorage) {
+            ((TrackingRepositoryStorage) storage).addResources(batch);
+        } else {
+            for (XResource res : batch) {
+                storage.addResource(res);
+            }
+        }
+    }
+
+    // Prefer the compiled binary feature, which is memory mapped when it is a plain file
+    private RepositoryReader getFeatureReader(ClassLoader classLoader, String feature) throws IOException {
+        URL binary = classLoader.getResource("/repository/" + feature + ".bin");
+        if (binary != null && isStale(binary, classLoader.getResource("/repository/" + feature + ".xml"))) {
+            LOGGER.warnStaleBinaryFeature(binary);
+            binary = null;
+        }
+        if (binary != null) {
+            if ("file".equals(binary.getProtocol())) {
+                try {
+                    return BinaryRepositoryReader.create(new File(binary.toURI()));
+                } catch (URISyntaxException ex) {
+                    // read from the stream
+                }
+            }
+            return BinaryRepositoryReader.create(binary.openStream());
+        }
+        InputStream input = getFeatureResource(classLoader, feature);
+        return input != null ? RepositoryXMLReader.create(input) : null;
+    }
+
+    // A binary feature is stale when it is known to be older than its source, an unknown time is not
+    private boolean isStale(URL binary, URL source) {
+        if (source == null)
+            return false;
+        long modified = getLastModified(binary);
+        long sourceModified = getLastModified(source);
+        return modified != 0 && sourceModified != 0 && modified < sourceModified;
+    }
+
+    private long getLastModified(URL url) {
+        try {
+            return url.openConnection().getLastModified();
+        } catch (IOException ex) {
+            return 0;
+        }
     }
 
     private InputStream getFeatureResource(ClassLoader classLoader, String feature) {
@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.osgi.repository.RepositoryReader;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+
+/**
+ * A hash index over the capabilities in a repository storage.
+ *
+ * Capabilities are indexed by namespace and the value of the attribute that has the same name
+ * as the namespace. The index is populated from the storage and kept up to date through the
+ * {@link RepositoryStorageListener} callbacks of a {@link TrackingRepositoryStorage}. When the
+ * storage cannot attribute a modification to individual resources, the index is rebuilt.
+ *
+ * Concrete identity capabilities are also kept in a version ordered map per identity,
+ * so that the highest matching version is found with a descending scan.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public final class RepositoryIndex implements RepositoryStorageListener {
+
+    static final Set<String> INDEXED_NAMESPACES = new HashSet<String>(Arrays.asList(IdentityNamespace.IDENTITY_NAMESPACE,
+            PackageNamespace.PACKAGE_NAMESPACE, XResource.MAVEN_IDENTITY_NAMESPACE, XResource.MODULE_IDENTITY_NAMESPACE));
+
+    private static final Map<String, Pattern> FILTER_PATTERNS = new HashMap<String, Pattern>();
+    static {
+        for (String namespace : INDEXED_NAMESPACES) {
+            FILTER_PATTERNS.put(namespace, Pattern.compile("\\(" + Pattern.quote(namespace) + "=([^()*\\\\]+)\\)"));
+        }
+    }
+
+    private final RepositoryStorage storage;
+    private volatile ConcurrentMap<IndexKey, List<XCapability>> capabilities = new ConcurrentHashMap<IndexKey, List<XCapability>>();
+    private volatile ConcurrentMap<String, ConcurrentSkipListMap<Version, XIdentityCapability>> identities = new ConcurrentHashMap<String, ConcurrentSkipListMap<Version, XIdentityCapability>>();
+
+    private RepositoryIndex(RepositoryStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Create an index for the given storage and register it for storage modifications.
+     */
+    static RepositoryIndex create(TrackingRepositoryStorage storage) {
+        RepositoryIndex index = new RepositoryIndex(storage);
+        storage.addListener(index);
+        index.populate();
+        return index;
+    }
+
+    /**
+     * The number of indexed capabilities
+     */
+    public int getSize() {
+        int result = 0;
+        for (List<XCapability> caps : capabilities.values()) {
+            result += caps.size();
+        }
+        return result;
+    }
+
+    @Override
+    public void resourceAdded(XResource res) {
+        for (String namespace : INDEXED_NAMESPACES) {
+            for (Capability cap : res.getCapabilities(namespace)) {
+                IndexKey key = getIndexKey((XCapability) cap);
+                if (key != null) {
+                    List<XCapability> caps = capabilities.get(key);
+                    if (caps == null) {
+                        List<XCapability> newcaps = new CopyOnWriteArrayList<XCapability>();
+                        caps = capabilities.putIfAbsent(key, newcaps);
+                        caps = caps != null ? caps : newcaps;
+                    }
+                    ((CopyOnWriteArrayList<XCapability>) caps).addIfAbsent((XCapability) cap);
+                }
+            }
+        }
+
+        // The first concrete identity capability for a given version is the preferred one
+        XIdentityCapability icap = res.getIdentityCapability();
+        IndexKey key = icap != null && !res.isAbstract() ? getIndexKey(icap) : null;
+        if (key != null) {
+            ConcurrentSkipListMap<Version, XIdentityCapability> versions = identities.get(key.value);
+            if (versions == null) {
+                ConcurrentSkipListMap<Version, XIdentityCapability> newversions = new ConcurrentSkipListMap<Version, XIdentityCapability>();
+                versions = identities.putIfAbsent(key.value, newversions);
+                versions = versions != null ? versions : newversions;
+            }
+            versions.putIfAbsent(icap.getVersion(), icap);
+        }
+    }
+
+    @Override
+    public void resourceRemoved(XResource res) {
+        for (String namespace : INDEXED_NAMESPACES) {
+            for (Capability cap : res.getCapabilities(namespace)) {
+                IndexKey key = getIndexKey((XCapability) cap);
+                List<XCapability> caps = key != null ? capabilities.get(key) : null;
+                if (caps != null) {
+                    caps.remove(cap);
+                }
+            }
+        }
+
+        // Replace a removed identity capability with another one of the same version
+        XIdentityCapability icap = res.getIdentityCapability();
+        IndexKey key = icap != null && !res.isAbstract() ? getIndexKey(icap) : null;
+        ConcurrentSkipListMap<Version, XIdentityCapability> versions = key != null ? identities.get(key.value) : null;
+        if (versions != null && versions.remove(icap.getVersion(), icap)) {
+            List<XCapability> caps = capabilities.get(key);
+            for (XCapability cap : caps != null ? caps : Collections.<XCapability> emptyList()) {
+                XIdentityCapability other = (XIdentityCapability) cap;
+                if (!other.getResource().isAbstract() && other.getVersion().equals(icap.getVersion())) {
+                    versions.putIfAbsent(other.getVersion(), other);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void repositoryChanged() {
+        // Readers keep using the current maps until the new ones are complete
+        RepositoryIndex index = new RepositoryIndex(storage);
+        index.populate();
+        identities = index.identities;
+        capabilities = index.capabilities;
+    }
+
+    /**
+     * Find the providers for the given requirement.
+     *
+     * @return the matching capabilities or null if the requirement cannot be answered from the index
+     */
+    Collection<Capability> findProviders(XRequirement req) {
+        IndexKey key = getIndexKey(req);
+        if (key == null)
+            return null;
+
+        List<XCapability> caps = capabilities.get(key);
+        if (caps == null)
+            return Collections.emptyList();
+
+        List<Capability> result = new ArrayList<Capability>(caps.size());
+        for (XCapability cap : caps) {
+            if (req.matches(cap)) {
+                result.add(cap);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the identity provider with the highest version that matches the given requirement.
+     *
+     * Abstract resources are only selected if they are the only provider, which is consistent with
+     * the provider selection of the {@link AbstractResourceProvisioner}.
+     *
+     * @return the capability or null if the requirement cannot be answered from the index
+     */
+    XCapability findIdentityProvider(XRequirement req) {
+        IndexKey key = getIndexKey(req);
+        if (key == null || !IdentityNamespace.IDENTITY_NAMESPACE.equals(key.namespace))
+            return null;
+
+        ConcurrentSkipListMap<Version, XIdentityCapability> versions = identities.get(key.value);
+        if (versions != null) {
+            for (XIdentityCapability icap : versions.descendingMap().values()) {
+                if (req.matches(icap)) {
+                    return icap;
+                }
+            }
+        }
+
+        XCapability result = null;
+        List<XCapability> caps = capabilities.get(key);
+        for (XCapability cap : caps != null ? caps : Collections.<XCapability> emptyList()) {
+            if (req.matches(cap)) {
+                if (result != null)
+                    return null;
+                result = cap;
+            }
+        }
+        return result;
+    }
+
+    private void populate() {
+        RepositoryReader reader = storage.getRepositoryReader();
+        try {
+            XResource res = reader.nextResource();
+            while (res != null) {
+                resourceAdded(res);
+                res = reader.nextResource();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static IndexKey getIndexKey(XCapability cap) {
+        String namespace = cap.getNamespace();
+        Object value = cap.getAttribute(namespace);
+        return value != null ? new IndexKey(namespace, value.toString()) : null;
+    }
+
+    static IndexKey getIndexKey(XRequirement req) {
+        String namespace = req.getNamespace();
+        if (!INDEXED_NAMESPACES.contains(namespace))
+            return null;
+
+        Object value = req.getAttribute(namespace);
+        if (value == null) {
+            value = getFilterValue(namespace, req.getDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE));
+        }
+        return value != null ? new IndexKey(namespace, value.toString()) : null;
+    }
+
+    // Get the value of a mandatory equality term like (osgi.wiring.package=org.acme.foo) from the filter
+    private static String getFilterValue(String namespace, String filter) {
+        if (filter == null || filter.indexOf('|') >= 0)
+            return null;
+        String result = null;
+        Matcher matcher = FILTER_PATTERNS.get(namespace).matcher(filter);
+        while (matcher.find()) {
+            if (result != null || filter.startsWith("(!", matcher.start() - 2))
+                return null;
+            result = matcher.group(1);
+        }
+        return result;
+    }
+
+    static final class IndexKey {
+
+        private final String namespace;
+        private final String value;
+
+        IndexKey(String namespace, String value) {
+            this.namespace = namespace;
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * namespace.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof IndexKey))
+                return false;
+            IndexKey other = (IndexKey) obj;
+            return namespace.equals(other.namespace) && value.equals(other.value);
+        }
+
+        @Override
+        public String toString() {
+            return namespace + "=" + value;
+        }
+    }
+}
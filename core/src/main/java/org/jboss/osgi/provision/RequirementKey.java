@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.resource.Requirement;
+
+/**
+ * A key for requirements that are structurally equal.
+ *
+ * Two requirements are equal when they have the same namespace, attributes and directives,
+ * regardless of the resource that declares them.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+final class RequirementKey {
+
+    private final String namespace;
+    private final Map<String, Object> attributes;
+    private final Map<String, String> directives;
+    private final int hashCode;
+
+    RequirementKey(Requirement req) {
+        this.namespace = req.getNamespace();
+        this.attributes = new HashMap<String, Object>(req.getAttributes());
+        this.directives = new HashMap<String, String>(req.getDirectives());
+        this.hashCode = (31 * namespace.hashCode() + attributes.hashCode()) * 31 + directives.hashCode();
+    }
+
+    String getNamespace() {
+        return namespace;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof RequirementKey))
+            return false;
+        RequirementKey other = (RequirementKey) obj;
+        return hashCode == other.hashCode && namespace.equals(other.namespace) && attributes.equals(other.attributes)
+                && directives.equals(other.directives);
+    }
+
+    @Override
+    public String toString() {
+        return "RequirementKey[" + namespace + ",atts=" + attributes + ",dirs=" + directives + "]";
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision;
+
+import static org.jboss.osgi.provision.ProvisionMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.repository.RepositoryReader;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageFactory;
+import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * A {@link RepositoryStorage} that delegates to another storage and tracks its modifications.
+ *
+ * The generation is incremented for every resource that is added or removed.
+ * Provisioner caches use it to detect that the repository content has changed.
+ *
+ * A storage that is created by the {@link Factory} owns its delegate and sees every modification.
+ * A storage that wraps a delegate that is shared with others, like the storage of a repository
+ * service, cannot see modifications that bypass it. Those are detected by {@link #synchronize()},
+ * which compares the {@link #ATTRIBUTE_INCREMENT} repository attribute of the delegate.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class TrackingRepositoryStorage implements RepositoryStorage {
+
+    /** The repository attribute that the delegate increments on every modification */
+    public static final String ATTRIBUTE_INCREMENT = "increment";
+
+    private final RepositoryStorage delegate;
+    private final boolean shared;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong increment;
+    private final List<RepositoryStorageListener> listeners = new CopyOnWriteArrayList<RepositoryStorageListener>();
+
+    public TrackingRepositoryStorage(RepositoryStorage delegate) {
+        this(delegate, false);
+    }
+
+    /**
+     * @param shared true if the delegate may be modified by others
+     */
+    public TrackingRepositoryStorage(RepositoryStorage delegate, boolean shared) {
+        if (delegate == null)
+            throw MESSAGES.illegalArgumentNull("delegate");
+        this.delegate = delegate;
+        this.shared = shared;
+        this.increment = new AtomicLong(shared ? readIncrement() : -1);
+    }
+
+    public static class Factory implements RepositoryStorageFactory {
+
+        private final RepositoryStorageFactory delegate;
+
+        public Factory(RepositoryStorageFactory delegate) {
+            if (delegate == null)
+                throw MESSAGES.illegalArgumentNull("delegate");
+            this.delegate = delegate;
+        }
+
+        @Override
+        public RepositoryStorage create(XRepository repository) {
+            return new TrackingRepositoryStorage(delegate.create(repository));
+        }
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * True if every modification of the delegate is seen by this storage.
+     * A shared delegate is only tracked if it maintains the {@link #ATTRIBUTE_INCREMENT} attribute.
+     */
+    public boolean isTracking() {
+        return !shared || increment.get() >= 0;
+    }
+
+    /**
+     * Detect modifications of a shared delegate that bypassed this storage.
+     *
+     * If the increment of the delegate has changed, the generation is incremented and
+     * the listeners are told that the repository has changed.
+     */
+    public void synchronize() {
+        if (!shared)
+            return;
+
+        long observed = readIncrement();
+        long current = increment.get();
+        while (observed != current) {
+            if (increment.compareAndSet(current, observed)) {
+                generation.incrementAndGet();
+                for (RepositoryStorageListener listener : listeners) {
+                    listener.repositoryChanged();
+                }
+                return;
+            }
+            current = increment.get();
+        }
+    }
+
+    public void addListener(RepositoryStorageListener listener) {
+        if (listener == null)
+            throw MESSAGES.illegalArgumentNull("listener");
+        listeners.add(listener);
+    }
+
+    public void removeListener(RepositoryStorageListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public XRepository getRepository() {
+        return delegate.getRepository();
+    }
+
+    @Override
+    public RepositoryReader getRepositoryReader() {
+        return delegate.getRepositoryReader();
+    }
+
+    @Override
+    public Collection<Capability> findProviders(Requirement req) {
+        return delegate.findProviders(req);
+    }
+
+    @Override
+    public XResource addResource(XResource res) {
+        XResource result = delegate.addResource(res);
+        generation.incrementAndGet();
+        for (RepositoryStorageListener listener : listeners) {
+            listener.resourceAdded(result);
+        }
+        return result;
+    }
+
+    /**
+     * Add the given resources with a single generation increment.
+     * @return the added resources
+     */
+    public List<XResource> addResources(Collection<XResource> resources) {
+        if (resources == null)
+            throw MESSAGES.illegalArgumentNull("resources");
+        List<XResource> result = new ArrayList<XResource>(resources.size());
+        try {
+            for (XResource res : resources) {
+                result.add(delegate.addResource(res));
+            }
+        } finally {
+            if (!result.isEmpty()) {
+                generation.incrementAndGet();
+                for (XResource res : result) {
+                    for (RepositoryStorageListener listener : listeners) {
+                        listener.resourceAdded(res);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean removeResource(XResource res) {
+        boolean removed = delegate.removeResource(res);
+        if (removed) {
+            generation.incrementAndGet();
+            for (RepositoryStorageListener listener : listeners) {
+                listener.resourceRemoved(res);
+            }
+        }
+        return removed;
+    }
+
+    // The increment of the delegate or -1 if it does not maintain one
+    private long readIncrement() {
+        RepositoryReader reader = delegate.getRepositoryReader();
+        try {
+            String value = reader.getRepositoryAttributes().get(ATTRIBUTE_INCREMENT);
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -19,7 +19,10 @@
  */
 package org.jboss.osgi.provision;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.resolver.XEnvironment;
@@ -39,4 +42,36 @@ public interface XResourceProvisioner {
     XRepository getRepository();
 
     ProvisionResult findResources(XEnvironment env, Set<XRequirement> reqs);
+
+    /**
+     * Find the resources for several environments in one batch.
+     *
+     * The repository lookups are shared between the requests of the batch.
+     *
+     * @return one result per request in the order of the requests
+     */
+    List<ProvisionResult> findResources(List<ProvisionRequest> requests);
+
+    /**
+     * Find the resources asynchronously.
+     *
+     * Cancelling the returned future stops the call between two rounds.
+     */
+    Future<ProvisionResult> findResourcesAsync(XEnvironment env, Set<XRequirement> reqs);
+
+    /**
+     * Find the resources asynchronously with a deadline.
+     *
+     * When the timeout expires the call stops between two rounds and completes with a partial
+     * result that has status {@link ProvisionResult.Status#TIMED_OUT}. A timeout of 0 means no deadline.
+     */
+    Future<ProvisionResult> findResourcesAsync(XEnvironment env, Set<XRequirement> reqs, long timeout, TimeUnit unit);
+
+    /**
+     * Find the resources for the requirements of a previous result with some requirements added and some removed.
+     *
+     * The resources of the previous result that are still needed are reused together with their mapping
+     * and wiring. Only the added requirements are looked up in the repository.
+     */
+    ProvisionDelta findResourcesDelta(XEnvironment env, ProvisionResult previous, Set<XRequirement> added, Set<XRequirement> removed);
 }
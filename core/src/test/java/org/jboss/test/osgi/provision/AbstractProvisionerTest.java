@@ -36,6 +36,7 @@ import org.jboss.osgi.provision.ProvisionResult;
 import org.jboss.osgi.provision.XResourceProvisioner;
 import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageFactory;
 import org.jboss.osgi.repository.RepositoryXMLReader;
 import org.jboss.osgi.repository.XPersistentRepository;
 import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
@@ -43,6 +44,7 @@ import org.jboss.osgi.repository.spi.MavenIdentityRepository;
 import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
 import org.jboss.osgi.resolver.XEnvironment;
 import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
 import org.jboss.osgi.resolver.XResolver;
 import org.jboss.osgi.resolver.XResource;
 import org.jboss.osgi.resolver.XResourceBuilder;
@@ -51,6 +53,7 @@ import org.jboss.osgi.resolver.spi.AbstractEnvironment;
 import org.jboss.osgi.resolver.spi.AbstractResolver;
 import org.junit.Before;
 import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
 
 /**
  * The abstract provisioner test.
@@ -69,9 +72,15 @@ public abstract class AbstractProvisionerTest {
     public void setUp() throws Exception {
         environment = new AbstractEnvironment();
         XResolver resolver = new AbstractResolver();
-        repository = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory());
+        repository = new AbstractPersistentRepository(getStorageFactory());
         repository.addRepositoryDelegate(new MavenIdentityRepository());
-        provisionService = new AbstractResourceProvisioner(resolver, repository);
+        AbstractResourceProvisioner provisioner = new AbstractResourceProvisioner(resolver, repository);
+        provisioner.trackEnvironment(environment);
+        provisionService = provisioner;
+    }
+
+    RepositoryStorageFactory getStorageFactory() {
+        return new MemoryRepositoryStorage.Factory();
     }
 
     XResourceProvisioner getProvisioner() {
@@ -94,6 +103,7 @@ public abstract class AbstractProvisionerTest {
         for (XResource res : resources) {
             environment.installResources(res);
         }
+        ((AbstractResourceProvisioner) provisionService).environmentModified(environment);
     }
 
     void setupFrameworkEnvironment() {
@@ -108,6 +118,7 @@ public abstract class AbstractProvisionerTest {
         XResourceBuilder<XResource> factory = XResourceBuilderFactory.create();
         XResource systemResource = factory.loadFrom(systemMetaData).getResource();
         environment.installResources(systemResource);
+        ((AbstractResourceProvisioner) provisionService).environmentModified(environment);
     }
 
     void setupRepository(String config) throws XMLStreamException {
@@ -124,4 +135,14 @@ public abstract class AbstractProvisionerTest {
         InputStream input = getClass().getClassLoader().getResourceAsStream(config);
         return RepositoryXMLReader.create(input);
     }
+
+    XResource createResource(String name, String version) {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, name).getAttributes().put("version", version != null ? version : "1.0.0");
+        return cbuilder.getResource();
+    }
+
+    XRequirement createRequirement(String name) {
+        return XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, name).getRequirement();
+    }
 }
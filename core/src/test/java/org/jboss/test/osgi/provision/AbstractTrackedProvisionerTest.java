@@ -0,0 +1,38 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import org.jboss.osgi.provision.TrackingRepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageFactory;
+import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
+
+/**
+ * The abstract provisioner test for a repository that owns a {@link TrackingRepositoryStorage}.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public abstract class AbstractTrackedProvisionerTest extends AbstractProvisionerTest {
+
+    @Override
+    RepositoryStorageFactory getStorageFactory() {
+        return new TrackingRepositoryStorage.Factory(new MemoryRepositoryStorage.Factory());
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.provision.ContentPrefetcher;
+import org.jboss.osgi.provision.ContentPrefetcher.PrefetchedContent;
+import org.jboss.osgi.resolver.XResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.resource.Capability;
+import org.osgi.service.repository.ContentNamespace;
+import org.osgi.service.repository.RepositoryContent;
+
+/**
+ * Test the bounds of the {@link ContentPrefetcher}.
+ *
+ * Every fetch blocks until the gate opens, so that the fetches that the prefetcher
+ * started concurrently can be observed.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class ContentPrefetcherTestCase {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final Semaphore entered = new Semaphore(0);
+    private int running;
+    private int maxRunning;
+    private long bytesInFlight;
+    private long maxBytesInFlight;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMaxConcurrentFetches() throws Exception {
+        List<XResource> resources = new ArrayList<XResource>();
+        for (int i = 0; i < 6; i++) {
+            resources.add(createResource("res" + i, 100));
+        }
+        ContentPrefetcher prefetcher = new ContentPrefetcher(executor, 2, Long.MAX_VALUE);
+        PrefetchedContent prefetched = prefetcher.prefetch(resources);
+        try {
+            Assert.assertTrue("Two fetches started", entered.tryAcquire(2, 10, TimeUnit.SECONDS));
+            Assert.assertFalse("Third fetch not started", entered.tryAcquire(200, TimeUnit.MILLISECONDS));
+            gate.countDown();
+            assertContent(prefetched, resources);
+        } finally {
+            prefetched.close();
+        }
+        Assert.assertEquals(2, getMaxRunning());
+    }
+
+    @Test
+    public void testMaxBytesInFlight() throws Exception {
+        List<XResource> resources = new ArrayList<XResource>();
+        resources.add(createResource("res0", 100));
+        resources.add(createResource("res1", 100));
+        resources.add(createResource("res2", 100));
+        resources.add(createResource("large", 1000));
+        resources.add(createResource("res4", 100));
+        ContentPrefetcher prefetcher = new ContentPrefetcher(executor, 4, 250);
+        PrefetchedContent prefetched = prefetcher.prefetch(resources);
+        try {
+            Assert.assertTrue("Two fetches started", entered.tryAcquire(2, 10, TimeUnit.SECONDS));
+            Assert.assertFalse("Third fetch not started", entered.tryAcquire(200, TimeUnit.MILLISECONDS));
+            gate.countDown();
+            assertContent(prefetched, resources);
+        } finally {
+            prefetched.close();
+        }
+        Assert.assertEquals(2, getMaxRunning());
+
+        // A fetch that exceeds the bound on its own runs alone
+        Assert.assertEquals(1000, getMaxBytesInFlight());
+    }
+
+    @Test
+    public void testSharedExecutor() throws Exception {
+        gate.countDown();
+        final List<XResource> resources = new ArrayList<XResource>();
+        resources.add(createResource("res0", 100));
+        resources.add(createResource("res1", 100));
+
+        // The reader takes the only thread, the fetches it waits for are queued behind it
+        ExecutorService shared = Executors.newSingleThreadExecutor();
+        try {
+            final ContentPrefetcher prefetcher = new ContentPrefetcher(shared, 1, Long.MAX_VALUE);
+            Future<Void> reader = shared.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    PrefetchedContent prefetched = prefetcher.prefetch(resources);
+                    try {
+                        assertContent(prefetched, resources);
+                    } finally {
+                        prefetched.close();
+                    }
+                    return null;
+                }
+            });
+            reader.get(10, TimeUnit.SECONDS);
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledFetch() throws Exception {
+        List<XResource> resources = new ArrayList<XResource>();
+        resources.add(createResource("res0", 100));
+        resources.add(createResource("res1", 100));
+        ContentPrefetcher prefetcher = new ContentPrefetcher(executor, 1, Long.MAX_VALUE);
+        PrefetchedContent prefetched = prefetcher.prefetch(resources);
+        Assert.assertTrue("First fetch started", entered.tryAcquire(10, TimeUnit.SECONDS));
+
+        // Closing cancels the pending fetch and waits for the running one
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                gate.countDown();
+            }
+        });
+        prefetched.close();
+        try {
+            prefetched.getContent(resources.get(1));
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private void assertContent(PrefetchedContent prefetched, List<XResource> resources) throws IOException {
+        for (XResource res : resources) {
+            InputStream input = prefetched.getContent(res);
+            Assert.assertNotNull("Content prefetched: " + res, input);
+            try {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                int b;
+                while ((b = input.read()) >= 0) {
+                    output.write(b);
+                }
+                Assert.assertEquals(res.toString(), new String(output.toByteArray(), "UTF-8"));
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private synchronized int getMaxRunning() {
+        return maxRunning;
+    }
+
+    private synchronized long getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    private synchronized void fetchStarted(long size) {
+        running++;
+        bytesInFlight += size;
+        maxRunning = Math.max(maxRunning, running);
+        maxBytesInFlight = Math.max(maxBytesInFlight, bytesInFlight);
+    }
+
+    private synchronized void fetchFinished(long size) {
+        running--;
+        bytesInFlight -= size;
+    }
+
+    // The content stream is closed by the prefetcher before the fetch completes
+    private InputStream getContent(final String name, final long size) throws IOException {
+        fetchStarted(size);
+        entered.release();
+        try {
+            gate.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex.toString());
+        }
+        return new ByteArrayInputStream(name.getBytes("UTF-8")) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    fetchFinished(size);
+                }
+            }
+        };
+    }
+
+    private XResource createResource(final String name, final long size) {
+        final Capability ccap = (Capability) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Capability.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getNamespace"))
+                    return ContentNamespace.CONTENT_NAMESPACE;
+                if (method.getName().equals("getAttributes"))
+                    return Collections.<String, Object> singletonMap(ContentNamespace.CAPABILITY_SIZE_ATTRIBUTE, size);
+                return invokeObjectMethod(proxy, method, args, name);
+            }
+        });
+        return (XResource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { XResource.class, RepositoryContent.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getContent"))
+                    return getContent(name, size);
+                if (method.getName().equals("getCapabilities"))
+                    return ContentNamespace.CONTENT_NAMESPACE.equals(args[0]) ? Collections.singletonList(ccap) : Collections.emptyList();
+                return invokeObjectMethod(proxy, method, args, name);
+            }
+        });
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args, String name) {
+        if (method.getName().equals("equals"))
+            return proxy == args[0];
+        if (method.getName().equals("hashCode"))
+            return System.identityHashCode(proxy);
+        if (method.getName().equals("toString"))
+            return name;
+        return null;
+    }
+}
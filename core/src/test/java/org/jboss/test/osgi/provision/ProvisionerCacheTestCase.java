@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.DelegateProviderCache;
+import org.jboss.osgi.provision.FeatureClosureCache;
+import org.jboss.osgi.provision.NegativeLookupCache;
+import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.provision.ProvisionResultCache;
+import org.jboss.osgi.provision.ProviderLookupCache;
+import org.jboss.osgi.provision.RepositoryIndex;
+import org.jboss.osgi.provision.TrackingRepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.jboss.osgi.resolver.spi.AbstractEnvironment;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.namespace.IdentityNamespace;
+
+/**
+ * Test the provisioner caches.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class ProvisionerCacheTestCase extends AbstractTrackedProvisionerTest {
+
+    @Test
+    public void testResultCache() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+
+        ProvisionResultCache cache = ((AbstractResourceProvisioner) getProvisioner()).getResultCache();
+        Assert.assertEquals(0, cache.getHitCount());
+
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // A structurally equal requirement hits the cache
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getSize());
+
+        // Modifying the repository invalidates the cache
+        XResource res2 = createResource("res1", "2.0.0");
+        storage.addResource(res2);
+        Assert.assertEquals(0, cache.getSize());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // Installing a resource invalidates the cached result
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        getEnvironment().installResources(createResource("other", null));
+        provisioner.environmentModified(getEnvironment());
+        req = createRequirement("res1");
+        findResources(Collections.singleton(req));
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Results for an untracked environment are not cached
+        provisioner.untrackEnvironment(getEnvironment());
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Another environment with the same generation does not share the result
+        XEnvironment env2 = new AbstractEnvironment();
+        provisioner.trackEnvironment(env2);
+        provisioner.trackEnvironment(getEnvironment());
+        req = createRequirement("res1");
+        findResources(Collections.singleton(req));
+        req = createRequirement("res1");
+        provisioner.findResources(env2, Collections.singleton(req));
+        Assert.assertEquals(5, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testProviderCache() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        ProviderLookupCache cache = provisioner.getProviderCache();
+        cache.setEnabled(true);
+
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(0, cache.getHitCount());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Modifying the repository invalidates the cache
+        XResource res2 = createResource("res1", "2.0.0");
+        storage.addResource(res2);
+        Assert.assertEquals(0, cache.getSize());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+    }
+
+    @Test
+    public void testNegativeCache() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        NegativeLookupCache cache = provisioner.getNegativeCache();
+
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(Collections.singleton(req), result.getUnsatisfiedRequirements());
+        Assert.assertEquals(1, cache.getSize());
+
+        req = createRequirement("res1");
+        findResources(Collections.singleton(req));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Only a matching capability invalidates the entry
+        storage.addResource(createResource("other", null));
+        Assert.assertEquals(1, cache.getSize());
+
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+        Assert.assertEquals(0, cache.getSize());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+    }
+
+    @Test
+    public void testDelegateCache() throws Exception {
+        setupRepository("xml/eventadmin-feature.xml");
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        DelegateProviderCache cache = provisioner.getDelegateCache();
+
+        XRequirement req = createRequirement("felix.eventadmin.feature");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals("One resource", 1, result.getResources().size());
+        Assert.assertEquals(1, cache.getSize());
+
+        // The abstract resource expands to the cached maven delegate
+        req = createRequirement("felix.eventadmin.feature");
+        ProvisionResult cached = findResources(Collections.singleton(req));
+        Assert.assertEquals(result.getResources(), cached.getResources());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Modifying the repository clears the cache
+        storage.addResource(createResource("other", null));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testFeatureClosure() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "feature1").getAttributes().put(XResource.CAPABILITY_TYPE_ATTRIBUTE, XResource.TYPE_ABSTRACT);
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "feature2");
+        storage.addResource(cbuilder.getResource());
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "feature2").getAttributes().put(XResource.CAPABILITY_TYPE_ATTRIBUTE, XResource.TYPE_ABSTRACT);
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res3");
+        storage.addResource(cbuilder.getResource());
+        XResource res3 = createResource("res3", null);
+        storage.addResource(res3);
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        FeatureClosureCache cache = provisioner.getClosureCache();
+
+        // Walk the feature chain round by round
+        cache.setEnabled(false);
+        ProvisionResult result = findResources(Collections.singleton(createRequirement("feature1")));
+        Assert.assertEquals(Collections.singletonList(res3), result.getResources());
+        Map<XRequirement, XResource> mapping = result.getRequirementMapping();
+        Assert.assertEquals(1, mapping.size());
+        Assert.assertEquals(Collections.singleton(res3), new HashSet<XResource>(mapping.values()));
+        long rounds = provisioner.getRoundCount();
+
+        // Install the materialized closure in one step
+        cache.setEnabled(true);
+        result = findResources(Collections.singleton(createRequirement("feature1")));
+        Assert.assertEquals(Collections.singletonList(res3), result.getResources());
+        Assert.assertEquals(mapping, result.getRequirementMapping());
+        Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+        Assert.assertTrue("Fewer rounds", provisioner.getRoundCount() - rounds < rounds);
+        Assert.assertEquals(1, cache.getSize());
+
+        result = findResources(Collections.singleton(createRequirement("feature1")));
+        Assert.assertEquals(Collections.singletonList(res3), result.getResources());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Only a resource the closure depends on invalidates it
+        storage.addResource(createResource("other", null));
+        Assert.assertEquals(1, cache.getSize());
+        storage.addResource(createResource("res3", "2.0.0"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testFeatureClosureInEnvironment() throws Exception {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "feature1").getAttributes().put(XResource.CAPABILITY_TYPE_ATTRIBUTE, XResource.TYPE_ABSTRACT);
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "feature2");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res4");
+        storage.addResource(cbuilder.getResource());
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "feature2").getAttributes().put(XResource.CAPABILITY_TYPE_ATTRIBUTE, XResource.TYPE_ABSTRACT);
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res3");
+        XResource feature2 = cbuilder.getResource();
+        storage.addResource(feature2);
+        XResource res3 = createResource("res3", null);
+        storage.addResource(res3);
+        XResource res4 = createResource("res4", null);
+        storage.addResource(res4);
+
+        // The environment already provides the second feature
+        installResources(Arrays.asList(feature2, res3));
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        FeatureClosureCache cache = provisioner.getClosureCache();
+
+        cache.setEnabled(false);
+        ProvisionResult result = findResources(Collections.singleton(createRequirement("feature1")));
+        Assert.assertEquals(Collections.singletonList(res4), result.getResources());
+        Map<XRequirement, XResource> mapping = result.getRequirementMapping();
+        Assert.assertEquals(Collections.singleton(res4), new HashSet<XResource>(mapping.values()));
+
+        cache.setEnabled(true);
+        result = findResources(Collections.singleton(createRequirement("feature1")));
+        Assert.assertEquals(Collections.singletonList(res4), result.getResources());
+        Assert.assertEquals(mapping, result.getRequirementMapping());
+        Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testRepositoryIndex() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        RepositoryIndex index = ((AbstractResourceProvisioner) getProvisioner()).getRepositoryIndex();
+        Assert.assertNotNull("RepositoryIndex not null", index);
+        Assert.assertEquals(0, index.getSize());
+
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+        Assert.assertEquals(1, index.getSize());
+
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+
+        storage.removeResource(res1);
+        Assert.assertEquals(0, index.getSize());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(Collections.singleton(req), result.getUnsatisfiedRequirements());
+    }
+
+    @Test
+    public void testClose() {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        RepositoryIndex index = provisioner.getRepositoryIndex();
+        storage.addResource(createResource("res1", null));
+        Assert.assertEquals(1, index.getSize());
+
+        // A closed provisioner no longer receives storage modifications
+        provisioner.close();
+        storage.addResource(createResource("res2", null));
+        Assert.assertEquals(1, index.getSize());
+    }
+
+    @Test
+    public void testBatchedAdd() {
+        TrackingRepositoryStorage storage = (TrackingRepositoryStorage) getRepository().adapt(RepositoryStorage.class);
+        RepositoryIndex index = ((AbstractResourceProvisioner) getProvisioner()).getRepositoryIndex();
+        long generation = storage.getGeneration();
+
+        XResource res1 = createResource("res1", null);
+        XResource res2 = createResource("res2", null);
+        storage.addResources(Arrays.asList(res1, res2));
+        Assert.assertEquals(generation + 1, storage.getGeneration());
+        Assert.assertEquals(2, index.getSize());
+
+        XRequirement req = createRequirement("res2");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+    }
+}
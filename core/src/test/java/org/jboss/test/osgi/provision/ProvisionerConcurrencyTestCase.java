@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.provision.AbstractProvisionListener;
+import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.namespace.IdentityNamespace;
+
+/**
+ * Test concurrent use of one {@link AbstractResourceProvisioner}.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class ProvisionerConcurrencyTestCase extends AbstractProvisionerTest {
+
+    static final int CHAINS = 20;
+    static final int DEPTH = 10;
+    static final int ITERATIONS = 200;
+
+    @Test
+    public void testConcurrentFindResources() throws Exception {
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        for (int chain = 0; chain < CHAINS; chain++) {
+            for (int i = 0; i < DEPTH; i++) {
+                XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+                cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res" + chain + "." + i);
+                if (i + 1 < DEPTH) {
+                    cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res" + chain + "." + (i + 1));
+                }
+                storage.addResource(cbuilder.getResource());
+            }
+        }
+
+        // The expected results of sequential execution
+        final AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getProviderCache().setEnabled(true);
+
+        // Without the result cache every call provisions the chain
+        provisioner.getResultCache().setMaxSize(0);
+        final List<String> expected = new ArrayList<String>();
+        for (int chain = 0; chain < CHAINS; chain++) {
+            expected.add(describe(findChain(chain)));
+        }
+
+        runFindResources(Math.max(2, Runtime.getRuntime().availableProcessors()), expected);
+        Assert.assertEquals(0, provisioner.getResultCache().getHitCount());
+    }
+
+    @Test
+    public void testCoalescedRequests() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        XResource res1 = cbuilder.getResource();
+        getRepository().adapt(RepositoryStorage.class).addResource(res1);
+
+        // Hold the first call until the second one has joined it
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.addListener(new AbstractProvisionListener() {
+            @Override
+            public void provisionStarted(XEnvironment env, Set<XRequirement> reqs) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final XRequirement req1 = createRequirement("res1");
+            Future<ProvisionResult> first = executor.submit(new Callable<ProvisionResult>() {
+                @Override
+                public ProvisionResult call() throws Exception {
+                    return findResources(Collections.singleton(req1));
+                }
+            });
+            Assert.assertTrue("First call started", started.await(10, TimeUnit.SECONDS));
+
+            final XRequirement req2 = createRequirement("res1");
+            Future<ProvisionResult> second = executor.submit(new Callable<ProvisionResult>() {
+                @Override
+                public ProvisionResult call() throws Exception {
+                    return findResources(Collections.singleton(req2));
+                }
+            });
+            long timeout = System.currentTimeMillis() + 10000;
+            while (provisioner.getCoalescedCount() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assert.assertEquals(res1, first.get(10, TimeUnit.SECONDS).getRequirementMapping().get(req1));
+            Assert.assertEquals(res1, second.get(10, TimeUnit.SECONDS).getRequirementMapping().get(req2));
+            Assert.assertEquals(1, provisioner.getCoalescedCount());
+            Assert.assertEquals(1, provisioner.getMetrics().getCallCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private void runFindResources(int threads, final List<String> expected) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int chain = (i + offset) % CHAINS;
+                            ProvisionResult result = findChain(chain);
+                            Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+                            Assert.assertEquals(expected.get(chain), describe(result));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ProvisionResult findChain(int chain) {
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res" + chain + ".0").getRequirement();
+        return findResources(Collections.singleton(req));
+    }
+
+    // The resources in order, the requirement mapping and the unsatisfied reqs by structure
+    private String describe(ProvisionResult result) {
+        List<String> resources = new ArrayList<String>();
+        for (XResource res : result.getResources()) {
+            resources.add(getName(res));
+        }
+        Set<String> mapping = new TreeSet<String>();
+        for (Entry<XRequirement, XResource> entry : result.getRequirementMapping().entrySet()) {
+            mapping.add(describe(entry.getKey()) + "->" + getName(entry.getValue()));
+        }
+        Set<String> unsatisfied = new TreeSet<String>();
+        for (XRequirement req : result.getUnsatisfiedRequirements()) {
+            unsatisfied.add(describe(req));
+        }
+        return resources + " " + mapping + " " + unsatisfied;
+    }
+
+    private String describe(XRequirement req) {
+        return getName(req.getResource()) + ":" + req.getNamespace() + new TreeMap<String, Object>(req.getAttributes()) + new TreeMap<String, String>(req.getDirectives());
+    }
+
+    private String getName(XResource res) {
+        XIdentityCapability icap = res != null ? res.getIdentityCapability() : null;
+        return icap != null ? (String) icap.getAttribute(IdentityNamespace.IDENTITY_NAMESPACE) : "request";
+    }
+}
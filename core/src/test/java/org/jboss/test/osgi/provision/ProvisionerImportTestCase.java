@@ -0,0 +1,332 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.BinaryRepositoryWriter;
+import org.jboss.osgi.provision.ProvisionerSupport;
+import org.jboss.osgi.provision.RepositoryIndex;
+import org.jboss.osgi.provision.TrackingRepositoryStorage;
+import org.jboss.osgi.provision.XResourceProvisioner;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryXMLReader;
+import org.jboss.osgi.repository.ResourceInstaller;
+import org.jboss.osgi.repository.XPersistentRepository;
+import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
+import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.spi.AbstractResolver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.resource.Capability;
+
+/**
+ * Test the import of features into the repository by the {@link ProvisionerSupport}.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class ProvisionerImportTestCase extends AbstractTrackedProvisionerTest {
+
+    private final Map<String, String> features = new HashMap<String, String>();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPopulateRepository() throws Exception {
+        // Both features provide res2, feature2 also provides res5 which is already in the repository
+        addFeature("feature1", "res1", "res2", "res3");
+        addFeature("feature2", "res2", "res4", "res5");
+        String[] large = new String[ProvisionerSupport.IMPORT_BATCH_SIZE + 44];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = "large" + i;
+        }
+        addFeature("feature3", large);
+
+        TrackingRepositoryStorage storage = (TrackingRepositoryStorage) getRepository().adapt(RepositoryStorage.class);
+        RepositoryIndex index = ((AbstractResourceProvisioner) getProvisioner()).getRepositoryIndex();
+        storage.addResource(createResource("res5", null));
+        long generation = storage.getGeneration();
+
+        // The first feature is parsed last
+        final CountDownLatch parsed = new CountDownLatch(1);
+        ClassLoader classLoader = new FeatureClassLoader() {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                if (name.endsWith("/feature1.xml")) {
+                    await(parsed);
+                } else if (name.endsWith("/feature3.xml")) {
+                    parsed.countDown();
+                }
+                return super.getResourceAsStream(name);
+            }
+        };
+        createSupport().populateRepository(executor, classLoader, "feature1", "feature2", "feature3");
+
+        // The resources are added in two batches and the first provider of res2 wins
+        Assert.assertEquals(generation + 2, storage.getGeneration());
+        Assert.assertEquals(5 + large.length, index.getSize());
+        Assert.assertEquals("feature1", getFeature(storage, "res2"));
+        Assert.assertEquals("feature2", getFeature(storage, "res4"));
+        Assert.assertNull(getFeature(storage, "res5"));
+        Assert.assertEquals("feature3", getFeature(storage, "large" + (large.length - 1)));
+
+        // Importing the features again adds nothing
+        generation = storage.getGeneration();
+        createSupport().populateRepository(executor, new FeatureClassLoader(), "feature2", "feature1");
+        Assert.assertEquals(generation, storage.getGeneration());
+        Assert.assertEquals(5 + large.length, index.getSize());
+    }
+
+    @Test
+    public void testSharedRepositoryStorage() throws Exception {
+        addFeature("feature1", "res1", "res2", "res3");
+        addFeature("feature2", "res2", "res4", "res5");
+
+        // The provisioner only shares the storage of the repository
+        XPersistentRepository repository = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory());
+        final AbstractResourceProvisioner provisioner = new AbstractResourceProvisioner(new AbstractResolver(), repository);
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        Assert.assertNotNull("Storage tracked", provisioner.getTrackingStorage());
+        Assert.assertNotSame(storage, provisioner.getTrackingStorage());
+
+        // The index does not know about a resource that bypassed the provisioner
+        storage.addResource(createResource("res5", null));
+
+        // Overlapping imports add every identity once
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final String[] order : new String[][] { { "feature1", "feature2" }, { "feature2", "feature1" } }) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    createSupport(provisioner).populateRepository(null, new FeatureClassLoader(), order);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        for (String name : new String[] { "res1", "res2", "res3", "res4" }) {
+            Assert.assertNotNull(getFeature(storage, name));
+        }
+        Assert.assertNull(getFeature(storage, "res5"));
+        Assert.assertEquals(5, provisioner.getRepositoryIndex().getSize());
+    }
+
+    @Test
+    public void testStaleBinaryFeature() throws Exception {
+        addFeature("stale", "res1");
+        addFeature("current", "res2");
+        addFeature("unknown", "res3");
+        File dir = createTempDir();
+        try {
+            // The binary features are compiled from a different source
+            for (String feature : new String[] { "stale", "current", "unknown" }) {
+                File source = writeFeature(dir, feature + ".xml", features.get("/repository/" + feature + ".xml"));
+                String content = features.get("/repository/" + feature + ".xml").replace("value='" + feature + "'", "value='binary'");
+                File binary = new File(dir, feature + ".bin");
+                OutputStream output = new FileOutputStream(binary);
+                try {
+                    BinaryRepositoryWriter.compile(RepositoryXMLReader.create(new ByteArrayInputStream(content.getBytes("UTF-8"))), output);
+                } finally {
+                    output.close();
+                }
+                long modified = source.lastModified();
+                if (feature.equals("unknown")) {
+                    modified = 0;
+                } else {
+                    modified = feature.equals("stale") ? modified - 60000 : modified + 60000;
+                }
+                Assert.assertTrue(binary.setLastModified(modified));
+            }
+
+            // A binary feature without a known time is used
+            createSupport().populateRepository(executor, new FileClassLoader(dir), "stale", "current", "unknown");
+            RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+            Assert.assertEquals("stale", getFeature(storage, "res1"));
+            Assert.assertEquals("binary", getFeature(storage, "res2"));
+            Assert.assertEquals("binary", getFeature(storage, "res3"));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private File createTempDir() throws IOException {
+        File dir = File.createTempFile("features", "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Cannot create: " + dir);
+        return dir;
+    }
+
+    private File writeFeature(File dir, String name, String content) throws IOException {
+        File file = new File(dir, name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private void addFeature(String feature, String... names) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version='1.0' ?>\n");
+        builder.append("<repository xmlns='http://www.osgi.org/xmlns/repository/v1.0.0' name='" + feature + "'>\n");
+        for (String name : names) {
+            builder.append("  <resource>\n");
+            builder.append("    <capability namespace='osgi.identity'>\n");
+            builder.append("      <attribute name='osgi.identity' value='" + name + "' />\n");
+            builder.append("      <attribute name='feature' value='" + feature + "' />\n");
+            builder.append("    </capability>\n");
+            builder.append("  </resource>\n");
+        }
+        builder.append("</repository>\n");
+        features.put("/repository/" + feature + ".xml", builder.toString());
+    }
+
+    private String getFeature(RepositoryStorage storage, String name) {
+        XRequirement req = createRequirement(name);
+        Collection<Capability> providers = storage.findProviders(req);
+        Assert.assertEquals(1, providers.size());
+        XIdentityCapability icap = (XIdentityCapability) providers.iterator().next();
+        return (String) icap.getAttribute("feature");
+    }
+
+    private ProvisionerSupport createSupport() {
+        return createSupport(getProvisioner());
+    }
+
+    private ProvisionerSupport createSupport(XResourceProvisioner provisioner) {
+        final Map<String, Object> services = new HashMap<String, Object>();
+        services.put(XEnvironment.class.getName(), getEnvironment());
+        services.put(XResourceProvisioner.class.getName(), provisioner);
+        services.put(ResourceInstaller.class.getName(), null);
+        BundleContext syscontext = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BundleContext.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getServiceReference")) {
+                    final String name = ((Class<?>) args[0]).getName();
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ServiceReference.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return method.getName().equals("toString") ? name : null;
+                        }
+                    });
+                }
+                if (method.getName().equals("getService"))
+                    return services.get(args[0].toString());
+                return null;
+            }
+        });
+        return new ProvisionerSupport(syscontext);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS))
+                throw new IllegalStateException("Features not parsed concurrently");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private class FeatureClassLoader extends ClassLoader {
+
+        @Override
+        public URL getResource(String name) {
+            return null;
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            String content = features.get(name);
+            try {
+                return content != null ? new ByteArrayInputStream(content.getBytes("UTF-8")) : null;
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private static class FileClassLoader extends ClassLoader {
+
+        private final File dir;
+
+        FileClassLoader(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public URL getResource(String name) {
+            File file = new File(dir, name.substring(name.lastIndexOf('/') + 1));
+            try {
+                return file.exists() ? file.toURI().toURL() : null;
+            } catch (MalformedURLException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * #%L
+ * JBossOSGi Provision: Core
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.provision.ContentPrefetcher;
+import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.provision.ProvisionerSupport;
+import org.jboss.osgi.provision.ProvisionerSupport.ResourceHandle;
+import org.jboss.osgi.provision.XResourceProvisioner;
+import org.jboss.osgi.repository.ResourceInstaller;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.service.repository.RepositoryContent;
+
+/**
+ * Test the install and start of provisioned resources by the {@link ProvisionerSupport}.
+ *
+ * The framework services are stubbed. The result resources are E, C, D, B, A in this order,
+ * where B and D are wired to A, C and D are wired to each other and E is wired to C.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class ProvisionerSupportTestCase {
+
+    private final Map<String, XResource> resources = new HashMap<String, XResource>();
+    private final Map<Resource, List<Wire>> wiring = new HashMap<Resource, List<Wire>>();
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> started = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, Runnable> installHooks = new ConcurrentHashMap<String, Runnable>();
+    private final Map<String, Runnable> startHooks = new ConcurrentHashMap<String, Runnable>();
+    private final List<XResource> installables = Collections.synchronizedList(new ArrayList<XResource>());
+    private List<XResource> result;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        result = Arrays.asList(createResource("E"), createResource("C"), createResource("D"), createResource("B"), createResource("A"));
+        addWire("B", "A");
+        addWire("D", "A");
+        addWire("C", "D");
+        addWire("D", "C");
+        addWire("E", "C");
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStartLevels() throws Exception {
+        ProvisionerSupport support = createSupport();
+        List<ResourceHandle> handles = support.installCapabilities(IdentityNamespace.IDENTITY_NAMESPACE, "E");
+        Assert.assertEquals(5, handles.size());
+        Assert.assertEquals(Arrays.asList("install:E", "install:C", "install:D", "install:B", "install:A"), events.subList(0, 5));
+
+        // A resource that depends on a cycle starts after the cycle
+        Assert.assertEquals(Arrays.asList("start:A", "start:C", "start:D", "start:B", "start:E"), events.subList(5, 10));
+    }
+
+    @Test
+    public void testConcurrentInstall() throws Exception {
+        // Every install waits for all others, which only completes if they run concurrently
+        final CyclicBarrier installBarrier = new CyclicBarrier(result.size());
+        for (XResource res : result) {
+            installHooks.put(getName(res), new Awaiter(installBarrier));
+        }
+        // The resources of the cycle are started concurrently in the same level
+        CyclicBarrier cycleBarrier = new CyclicBarrier(2);
+        startHooks.put("C", new Awaiter(cycleBarrier));
+        startHooks.put("D", new Awaiter(cycleBarrier));
+
+        executor = Executors.newFixedThreadPool(result.size());
+        ProvisionerSupport support = createSupport();
+        support.setInstallExecutor(executor);
+        List<ResourceHandle> handles = support.installCapabilities(IdentityNamespace.IDENTITY_NAMESPACE, "E");
+        Assert.assertEquals(5, handles.size());
+        for (int i = 0; i < result.size(); i++) {
+            Assert.assertSame(result.get(i), handles.get(i).adapt(XResource.class));
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "B", "C", "D", "E")), started);
+    }
+
+    @Test
+    public void testInstallRollback() throws Exception {
+        installHooks.put("D", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("install D");
+            }
+        });
+        ProvisionerSupport support = createSupport();
+        try {
+            support.installCapabilities(IdentityNamespace.IDENTITY_NAMESPACE, "E");
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("install D", ex.getMessage());
+        }
+        Assert.assertTrue("Nothing started", started.isEmpty());
+        Assert.assertEquals(Arrays.asList("install:E", "install:C", "install:B", "install:A", "uninstall:E", "uninstall:C", "uninstall:B", "uninstall:A"), events);
+    }
+
+    @Test
+    public void testStartRollback() throws Exception {
+        startHooks.put("B", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("start B");
+            }
+        });
+        ProvisionerSupport support = createSupport();
+        try {
+            support.installCapabilities(IdentityNamespace.IDENTITY_NAMESPACE, "E");
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("start B", ex.getMessage());
+        }
+        // The level of B is completed, the next level is not started
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "C", "D")), started);
+        Assert.assertEquals(Arrays.asList("uninstall:E", "uninstall:C", "uninstall:D", "uninstall:B", "uninstall:A"), events.subList(events.size() - 5, events.size()));
+    }
+
+    @Test
+    public void testPrefetchedContent() throws Exception {
+        final XResource delegate = createResource("F");
+        final AtomicInteger fetches = new AtomicInteger();
+        XResource res = (XResource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { XResource.class, RepositoryContent.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getContent")) {
+                    fetches.incrementAndGet();
+                    return new ByteArrayInputStream("content F".getBytes("UTF-8"));
+                }
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                return method.invoke(delegate, args);
+            }
+        });
+        result = Collections.singletonList(res);
+
+        // The installer reads the local copy instead of fetching the content again
+        executor = Executors.newFixedThreadPool(2);
+        ProvisionerSupport support = createSupport();
+        support.setContentPrefetcher(new ContentPrefetcher(executor));
+        List<ResourceHandle> handles = support.installCapabilities(IdentityNamespace.IDENTITY_NAMESPACE, "F");
+        Assert.assertSame(res, handles.get(0).adapt(XResource.class));
+        Assert.assertEquals(Arrays.asList("content:content F", "install:F", "start:F"), events);
+        Assert.assertEquals(1, fetches.get());
+
+        // The installed view is only equal to itself and its capabilities belong to it
+        XResource view = installables.get(0);
+        Assert.assertNotSame(res, view);
+        Assert.assertFalse(view.equals(res));
+        Assert.assertTrue(view.equals(view));
+        Assert.assertEquals(System.identityHashCode(view), view.hashCode());
+        Assert.assertSame(view, view.getIdentityCapability().getResource());
+        Assert.assertSame(view, view.getCapabilities(null).get(0).getResource());
+        Assert.assertSame(view.getIdentityCapability(), view.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE).get(0));
+    }
+
+    private ProvisionerSupport createSupport() {
+        final ProvisionResult provisionResult = stub(ProvisionResult.class, new Stub() {
+            @Override
+            Object invoke(String method, Object[] args) {
+                if (method.equals("getResources"))
+                    return result;
+                if (method.equals("getWiring"))
+                    return wiring;
+                if (method.equals("getUnsatisfiedRequirements"))
+                    return Collections.emptySet();
+                return null;
+            }
+        });
+        final Map<String, Object> services = new HashMap<String, Object>();
+        services.put(XEnvironment.class.getName(), stub(XEnvironment.class, new Stub()));
+        services.put(XResourceProvisioner.class.getName(), stub(XResourceProvisioner.class, new Stub() {
+            @Override
+            Object invoke(String method, Object[] args) {
+                return method.equals("findResources") ? provisionResult : null;
+            }
+        }));
+        services.put(ResourceInstaller.class.getName(), stub(ResourceInstaller.class, new Stub() {
+            @Override
+            Object invoke(String method, Object[] args) throws Exception {
+                if (!method.equals("installResource"))
+                    return null;
+                installables.add((XResource) args[1]);
+                if (args[1] instanceof RepositoryContent) {
+                    events.add("content:" + readContent((RepositoryContent) args[1]));
+                }
+                return installBundle((XResource) args[1]);
+            }
+        }));
+        BundleContext syscontext = stub(BundleContext.class, new Stub() {
+            @Override
+            Object invoke(String method, Object[] args) {
+                if (method.equals("getServiceReference"))
+                    return stub(ServiceReference.class, new Stub(((Class<?>) args[0]).getName()));
+                if (method.equals("getService"))
+                    return services.get(args[0].toString());
+                return null;
+            }
+        });
+        return new ProvisionerSupport(syscontext);
+    }
+
+    private Bundle installBundle(XResource res) {
+        final String name = getName(res);
+        run(installHooks.get(name));
+        events.add("install:" + name);
+        return stub(Bundle.class, new Stub(name) {
+            @Override
+            Object invoke(String method, Object[] args) throws Exception {
+                if (method.equals("start")) {
+                    start(name);
+                } else if (method.equals("uninstall")) {
+                    events.add("uninstall:" + name);
+                }
+                return null;
+            }
+        });
+    }
+
+    private String readContent(RepositoryContent content) throws IOException {
+        InputStream input = content.getContent();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) >= 0) {
+                output.write(b);
+            }
+            return new String(output.toByteArray(), "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    private void start(String name) throws BundleException {
+        for (Wire wire : wiring.get(resources.get(name)) != null ? wiring.get(resources.get(name)) : Collections.<Wire> emptyList()) {
+            String provider = getName((XResource) wire.getProvider());
+            if (!provider.equals(name) && !isCycle(name, provider) && !started.contains(provider))
+                throw new BundleException("Started before its dependency: " + name + " -> " + provider);
+        }
+        run(startHooks.get(name));
+        events.add("start:" + name);
+        started.add(name);
+    }
+
+    private boolean isCycle(String name, String provider) {
+        Set<String> cycle = new HashSet<String>(Arrays.asList("C", "D"));
+        return cycle.contains(name) && cycle.contains(provider);
+    }
+
+    private void run(Runnable hook) {
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private XResource createResource(String name) {
+        XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+        builder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, name);
+        XResource res = builder.getResource();
+        resources.put(name, res);
+        return res;
+    }
+
+    private void addWire(String requirer, String provider) {
+        final XResource reqres = resources.get(requirer);
+        final XResource capres = resources.get(provider);
+        List<Wire> wires = wiring.get(reqres);
+        if (wires == null) {
+            wires = new ArrayList<Wire>();
+            wiring.put(reqres, wires);
+        }
+        wires.add(stub(Wire.class, new Stub(requirer + "->" + provider) {
+            @Override
+            Object invoke(String method, Object[] args) {
+                if (method.equals("getRequirer"))
+                    return reqres;
+                if (method.equals("getProvider"))
+                    return capres;
+                return null;
+            }
+        }));
+    }
+
+    private String getName(XResource res) {
+        return (String) res.getIdentityCapability().getAttribute(IdentityNamespace.IDENTITY_NAMESPACE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Stub stub) {
+        return (T) Proxy.newProxyInstance(ProvisionerSupportTestCase.class.getClassLoader(), new Class<?>[] { type }, stub);
+    }
+
+    private static class Stub implements InvocationHandler {
+
+        private final String name;
+
+        Stub() {
+            this(null);
+        }
+
+        Stub(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("equals"))
+                return proxy == args[0];
+            if (method.getName().equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (method.getName().equals("toString"))
+                return name != null ? name : super.toString();
+            Object result = invoke(method.getName(), args);
+            if (result == null && method.getReturnType() == boolean.class)
+                return Boolean.FALSE;
+            return result;
+        }
+
+        Object invoke(String method, Object[] args) throws Exception {
+            return null;
+        }
+    }
+
+    private static class Awaiter implements Runnable {
+
+        private final CyclicBarrier barrier;
+
+        Awaiter(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                barrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Not concurrent", ex);
+            }
+        }
+    }
+}
@@ -19,15 +19,51 @@
  */
 package org.jboss.test.osgi.provision;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 
+import org.jboss.osgi.provision.AbstractProvisionListener;
+import org.jboss.osgi.provision.AbstractResourceProvisioner;
+import org.jboss.osgi.provision.AbstractResourceProvisioner.VerificationMode;
+import org.jboss.osgi.provision.BinaryRepositoryReader;
+import org.jboss.osgi.provision.BinaryRepositoryWriter;
+import org.jboss.osgi.provision.ProvisionDelta;
+import org.jboss.osgi.provision.ProvisionMetrics;
+import org.jboss.osgi.provision.ProvisionMetrics.Phase;
+import org.jboss.osgi.provision.ProvisionRequest;
 import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.provision.ProvisionResult.Status;
+import org.jboss.osgi.provision.TrackingRepositoryStorage;
 import org.jboss.osgi.provision.XResourceProvisioner;
+import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageFactory;
+import org.jboss.osgi.repository.RepositoryXMLReader;
+import org.jboss.osgi.repository.XPersistentRepository;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
+import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
 import org.jboss.osgi.resolver.MavenCoordinates;
 import org.jboss.osgi.resolver.XEnvironment;
 import org.jboss.osgi.resolver.XRequirement;
@@ -35,8 +71,14 @@ import org.jboss.osgi.resolver.XRequirementBuilder;
 import org.jboss.osgi.resolver.XResource;
 import org.jboss.osgi.resolver.XResourceBuilder;
 import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.jboss.osgi.resolver.spi.AbstractEnvironment;
+import org.jboss.osgi.resolver.spi.AbstractResolver;
 import org.junit.Test;
 import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.repository.ContentNamespace;
+import org.osgi.service.repository.RepositoryContent;
 
 
 /**
@@ -124,6 +166,527 @@ public class ProvisionerTestCase extends AbstractProvisionerTest {
         Assert.assertEquals(res1, result.getRequirementMapping().get(req));
     }
 
+    @Test
+    public void testEnvironmentUnchanged() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        XResource res = cbuilder.getResource();
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        storage.addResource(res);
+
+        XRequirementBuilder rbuilder = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        XRequirement req = rbuilder.getRequirement();
+
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals("One resource", 1, result.getResources().size());
+        Assert.assertFalse("Environment unchanged", getEnvironment().getResources(null).hasNext());
+    }
+
+    @Test
+    public void testSkipDoomedRounds() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res3");
+        XResource res2 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res3");
+        XResource res3 = cbuilder.getResource();
+
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+        storage.addResource(res3);
+
+        XRequirementBuilder rbuilder = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        XRequirement req = rbuilder.getRequirement();
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        provisioner.setSkipDoomedRounds(false);
+        ProvisionResult full = findResources(Collections.singleton(req));
+        long fullCalls = provisioner.getMetrics().getResolverCallCount();
+
+        provisioner.getMetrics().reset();
+        provisioner.setSkipDoomedRounds(true);
+        ProvisionResult skipped = findResources(Collections.singleton(req));
+        long skippedCalls = provisioner.getMetrics().getResolverCallCount();
+
+        Assert.assertEquals("Three resources", 3, skipped.getResources().size());
+        Assert.assertEquals(full.getResources(), skipped.getResources());
+        Assert.assertEquals(full.getRequirementMapping(), skipped.getRequirementMapping());
+        Assert.assertTrue("Nothing unsatisfied", skipped.getUnsatisfiedRequirements().isEmpty());
+        Assert.assertTrue("Fewer resolver calls: " + skippedCalls + " < " + fullCalls, skippedCalls < fullCalls);
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "root");
+        for (int i = 0; i < 10; i++) {
+            cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res" + i);
+        }
+        storage.addResource(cbuilder.getResource());
+        for (int i = 0; i < 10; i++) {
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res" + i);
+            storage.addResource(builder.getResource());
+        }
+
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "root").getRequirement();
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        ProvisionResult sequential = findResources(Collections.singleton(req));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            provisioner.setLookupExecutor(executor);
+            ProvisionResult concurrent = findResources(Collections.singleton(req));
+            Assert.assertEquals("Eleven resources", 11, concurrent.getResources().size());
+            Assert.assertEquals(sequential.getResources(), concurrent.getResources());
+            Assert.assertTrue("Nothing unsatisfied", concurrent.getUnsatisfiedRequirements().isEmpty());
+        } finally {
+            provisioner.setLookupExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchedLookup() throws Exception {
+        setupRepository("xml/eventadmin-feature.xml");
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        provisioner.setBatchedLookup(true);
+
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "felix.eventadmin.feature").getRequirement();
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals("One resource", 1, result.getResources().size());
+        Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+    }
+
+    @Test
+    public void testBinaryRepository() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int count = BinaryRepositoryWriter.compile(getRepositoryReader("xml/eventadmin-feature.xml"), output);
+        Assert.assertEquals(2, count);
+
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        RepositoryReader reader = BinaryRepositoryReader.create(ByteBuffer.wrap(output.toByteArray()));
+        Assert.assertEquals("PersistentRepository", reader.getRepositoryAttributes().get("name"));
+        XResource res = reader.nextResource();
+        while (res != null) {
+            storage.addResource(res);
+            res = reader.nextResource();
+        }
+
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "felix.eventadmin.feature").getRequirement();
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals("One resource", 1, result.getResources().size());
+        Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+    }
+
+    @Test
+    public void testBinaryRepositoryUnsupportedValue() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getAttributes().put("flag", Boolean.TRUE);
+        try {
+            BinaryRepositoryWriter.compile(getResourceReader(cbuilder.getResource()), new ByteArrayOutputStream());
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2").getDirectives().put("mandatory", null);
+        try {
+            BinaryRepositoryWriter.compile(getResourceReader(cbuilder.getResource()), new ByteArrayOutputStream());
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBinaryRepositoryRoundTrip() throws Exception {
+        File file = File.createTempFile("content", ".jar");
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                output.write("content".getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+            StringBuilder builder = new StringBuilder();
+            builder.append("<?xml version='1.0' ?>\n");
+            builder.append("<repository xmlns='http://www.osgi.org/xmlns/repository/v1.0.0' name='roundtrip'>\n");
+            builder.append("  <resource>\n");
+            builder.append("    <capability namespace='osgi.identity'>\n");
+            builder.append("      <attribute name='osgi.identity' value='res1' />\n");
+            builder.append("      <attribute name='version' type='Version' value='1.2.3' />\n");
+            builder.append("    </capability>\n");
+            builder.append("    <capability namespace='osgi.content'>\n");
+            builder.append("      <attribute name='osgi.content' value='0123456789abcdef' />\n");
+            builder.append("      <attribute name='url' value='" + file.toURI().toURL() + "' />\n");
+            builder.append("      <attribute name='size' type='Long' value='7' />\n");
+            builder.append("    </capability>\n");
+            builder.append("  </resource>\n");
+            builder.append("</repository>\n");
+            byte[] xml = builder.toString().getBytes("UTF-8");
+
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            BinaryRepositoryWriter.compile(RepositoryXMLReader.create(new ByteArrayInputStream(xml)), binary);
+            XResource xmlres = RepositoryXMLReader.create(new ByteArrayInputStream(xml)).nextResource();
+            XResource binres = BinaryRepositoryReader.create(ByteBuffer.wrap(binary.toByteArray())).nextResource();
+
+            // The binary resource is of the same type and provides the same content
+            Assert.assertEquals(xmlres.getClass(), binres.getClass());
+            Assert.assertTrue("RepositoryContent", binres instanceof RepositoryContent);
+            Assert.assertEquals("content", readContent((RepositoryContent) xmlres));
+            Assert.assertEquals("content", readContent((RepositoryContent) binres));
+            for (String namespace : new String[] { IdentityNamespace.IDENTITY_NAMESPACE, ContentNamespace.CONTENT_NAMESPACE }) {
+                Capability xmlcap = xmlres.getCapabilities(namespace).get(0);
+                Capability bincap = binres.getCapabilities(namespace).get(0);
+                Assert.assertEquals(xmlcap.getAttributes(), bincap.getAttributes());
+                Assert.assertEquals(xmlcap.getDirectives(), bincap.getDirectives());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDeepRequirementChain() {
+        int depth = 500;
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        for (int i = 0; i < depth; i++) {
+            XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+            cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res" + i);
+            if (i + 1 < depth) {
+                cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res" + (i + 1));
+            }
+            storage.addResource(cbuilder.getResource());
+        }
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res0").getRequirement();
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(depth, result.getResources().size());
+        Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
+        Assert.assertEquals(depth + 1, provisioner.getRoundCount());
+        Assert.assertEquals(depth, provisioner.getFrontierCount());
+    }
+
+    @Test
+    public void testResultVerification() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res2 = cbuilder.getResource();
+
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+
+        provisioner.setVerificationMode(VerificationMode.REUSE);
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertNotNull("Wiring not null", result.getWiring());
+        Assert.assertEquals(1, result.getWiring().get(res1).size());
+
+        provisioner.setVerificationMode(VerificationMode.FULL);
+        result = findResources(Collections.singleton(req));
+        Assert.assertNotNull("Wiring not null", result.getWiring());
+        Assert.assertEquals(1, result.getWiring().get(res1).size());
+
+        provisioner.setVerificationMode(VerificationMode.SKIP);
+        result = findResources(Collections.singleton(req));
+        Assert.assertNull("Wiring null", result.getWiring());
+        Assert.assertEquals("Two resources", 2, result.getResources().size());
+    }
+
+    @Test
+    public void testAsyncResources() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res2 = cbuilder.getResource();
+
+        XRepository repository = getProvisioner().getRepository();
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        Future<ProvisionResult> future = getProvisioner().findResourcesAsync(getEnvironment(), Collections.singleton(req));
+        ProvisionResult result = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Status.COMPLETE, result.getStatus());
+        Assert.assertEquals("Two resources", 2, result.getResources().size());
+
+        // An expired deadline stops before the first round
+        req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        ((AbstractResourceProvisioner) getProvisioner()).getResultCache().setMaxSize(0);
+        future = getProvisioner().findResourcesAsync(getEnvironment(), Collections.singleton(req), 1, TimeUnit.NANOSECONDS);
+        result = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Status.TIMED_OUT, result.getStatus());
+        Assert.assertTrue("Empty resources", result.getResources().isEmpty());
+        Assert.assertEquals(Collections.singleton(req), result.getUnsatisfiedRequirements());
+    }
+
+    @Test
+    public void testMetrics() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        getProvisioner().getRepository().adapt(RepositoryStorage.class).addResource(cbuilder.getResource());
+
+        ProvisionMetrics metrics = ((AbstractResourceProvisioner) getProvisioner()).getMetrics();
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(1, result.getUnsatisfiedRequirements().size());
+        Assert.assertEquals(1, metrics.getCallCount());
+        Assert.assertEquals(1, metrics.getResourcesAddedCount());
+        Assert.assertEquals(1, metrics.getUnsatisfiedCount());
+        Assert.assertEquals(2, metrics.getLookupCount());
+        Assert.assertTrue("Resolver called", metrics.getResolverCallCount() > 0);
+
+        String total = Phase.TOTAL.name();
+        Assert.assertEquals(1, metrics.getPhaseCount(total));
+        long p50 = metrics.getPercentileNanos(total, 50);
+        Assert.assertTrue("Percentile in range", p50 > 0 && p50 <= metrics.getMaxNanos(total));
+
+        // The percentile attributes are in the order of the phase names
+        Assert.assertEquals(metrics.getPhaseNames().length, metrics.getP50Nanos().length);
+        Assert.assertEquals(total, metrics.getPhaseNames()[Phase.TOTAL.ordinal()]);
+        Assert.assertEquals(p50, metrics.getP50Nanos()[Phase.TOTAL.ordinal()]);
+        Assert.assertTrue("Percentiles ordered", metrics.getP95Nanos()[Phase.TOTAL.ordinal()] >= p50);
+        Assert.assertEquals(metrics.getPercentileNanos(total, 99), metrics.getP99Nanos()[Phase.TOTAL.ordinal()]);
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getCallCount());
+        Assert.assertEquals(0, metrics.getPercentileNanos(total, 99));
+    }
+
+    @Test
+    public void testProvisionListener() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res2 = cbuilder.getResource();
+
+        RepositoryStorage storage = getProvisioner().getRepository().adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+
+        final List<String> events = new ArrayList<String>();
+        ((AbstractResourceProvisioner) getProvisioner()).addListener(new AbstractProvisionListener() {
+
+            @Override
+            public void provisionStarted(XEnvironment env, Set<XRequirement> reqs) {
+                events.add("started");
+            }
+
+            @Override
+            public void roundStarted(int round, int frontier) {
+                events.add("begin" + round);
+            }
+
+            @Override
+            public void roundFinished(int round, int frontier, boolean resolverCalled, long nanos) {
+                events.add("round" + round);
+            }
+
+            @Override
+            public void repositoryLookupStarted(XRequirement req) {
+                events.add("find");
+            }
+
+            @Override
+            public void repositoryLookupFinished(XRequirement req, int providers, long nanos) {
+                events.add("lookup" + providers);
+            }
+
+            @Override
+            public void provisionFinished(Set<XRequirement> reqs, ProvisionResult result, long nanos) {
+                events.add("finished" + result.getResources().size());
+            }
+        });
+
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        findResources(Collections.singleton(req));
+        Assert.assertEquals(Arrays.asList("started", "begin1", "find", "lookup1", "round1", "begin2", "find", "lookup1", "round2", "begin3", "round3", "finished2"), events);
+    }
+
+    @Test
+    public void testDeltaReusesPreviousResource() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+        XResource res2 = createResource("res2", null);
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+
+        XRequirement req1 = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req1));
+        Assert.assertEquals(Arrays.asList(res1, res2), result.getResources());
+
+        // The added req maps to a previous resource that the retained reqs no longer reach
+        XRequirement req2 = createRequirement("res2");
+        ProvisionDelta delta = getProvisioner().findResourcesDelta(getEnvironment(), result, Collections.singleton(req2), Collections.singleton(req1));
+        Assert.assertTrue("Nothing added", delta.getAddedResources().isEmpty());
+        Assert.assertEquals(Arrays.asList(res1), delta.getRemovedResources());
+        Assert.assertEquals(Arrays.asList(res2), delta.getResult().getResources());
+        Assert.assertEquals(res2, delta.getResult().getRequirementMapping().get(req2));
+
+        // The same for a previous resource that is already installed
+        installResources(result.getResources());
+        req2 = createRequirement("res2");
+        delta = getProvisioner().findResourcesDelta(getEnvironment(), result, Collections.singleton(req2), Collections.singleton(req1));
+        Assert.assertTrue("Nothing added", delta.getAddedResources().isEmpty());
+        Assert.assertEquals(Arrays.asList(res1), delta.getRemovedResources());
+        Assert.assertEquals(res2, delta.getResult().getRequirementMapping().get(req2));
+    }
+
+    @Test
+    public void testProvisionRequestCopiesRequirements() {
+        Set<XRequirement> reqs = new HashSet<XRequirement>(Collections.singleton(createRequirement("res1")));
+        ProvisionRequest request = new ProvisionRequest(getEnvironment(), reqs);
+        reqs.clear();
+        Assert.assertEquals(1, request.getRequirements().size());
+    }
+
+    @Test
+    public void testDeltaAfterRequestModified() {
+        XResource res1 = createResource("res1", null);
+        getRepository().adapt(RepositoryStorage.class).addResource(res1);
+
+        // The result does not share the requirement set of the caller
+        Set<XRequirement> reqs = new HashSet<XRequirement>(Collections.singleton(createRequirement("res1")));
+        ProvisionResult result = findResources(reqs);
+        reqs.clear();
+        ProvisionDelta delta = getProvisioner().findResourcesDelta(getEnvironment(), result, Collections.<XRequirement> emptySet(), Collections.<XRequirement> emptySet());
+        Assert.assertEquals(Collections.singletonList(res1), delta.getResult().getResources());
+        Assert.assertTrue("Nothing removed", delta.getRemovedResources().isEmpty());
+    }
+
+    @Test
+    public void testDeltaProvisioning() {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res2 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res3");
+        XResource res3 = cbuilder.getResource();
+
+        RepositoryStorage storage = getProvisioner().getRepository().adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+        storage.addResource(res3);
+
+        XRequirement req1 = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        ProvisionResult result = findResources(Collections.singleton(req1));
+        Assert.assertEquals(Arrays.asList(res1, res2), result.getResources());
+
+        // Adding a requirement only adds its resources
+        XRequirement req3 = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res3").getRequirement();
+        Set<XRequirement> none = Collections.emptySet();
+        ProvisionDelta delta = getProvisioner().findResourcesDelta(getEnvironment(), result, Collections.singleton(req3), none);
+        Assert.assertEquals(Arrays.asList(res3), delta.getAddedResources());
+        Assert.assertTrue("Nothing removed", delta.getRemovedResources().isEmpty());
+        Assert.assertEquals(Arrays.asList(res1, res2, res3), delta.getResult().getResources());
+        Assert.assertEquals(res3, delta.getResult().getRequirementMapping().get(req3));
+
+        // Removing a requirement removes the resources that are no longer needed
+        req1 = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        delta = getProvisioner().findResourcesDelta(getEnvironment(), delta.getResult(), none, Collections.singleton(req1));
+        Assert.assertTrue("Nothing added", delta.getAddedResources().isEmpty());
+        Assert.assertEquals(Arrays.asList(res1, res2), delta.getRemovedResources());
+        Assert.assertEquals(Arrays.asList(res3), delta.getResult().getResources());
+    }
+
+    @Test
+    public void testBatchProvisioning() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        cbuilder.addRequirement(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res1 = cbuilder.getResource();
+
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        XResource res2 = cbuilder.getResource();
+
+        RepositoryStorage storage = getProvisioner().getRepository().adapt(RepositoryStorage.class);
+        storage.addResource(res1);
+        storage.addResource(res2);
+
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        provisioner.getResultCache().setMaxSize(0);
+        provisioner.getProviderCache().setEnabled(false);
+
+        // The second environment already provides res2
+        XEnvironment env2 = new AbstractEnvironment();
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res2");
+        env2.installResources(cbuilder.getResource());
+
+        XRequirement req1 = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        XRequirement req2 = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        List<ProvisionRequest> requests = new ArrayList<ProvisionRequest>();
+        requests.add(new ProvisionRequest(getEnvironment(), Collections.singleton(req1)));
+        requests.add(new ProvisionRequest(env2, Collections.singleton(req2)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            provisioner.setBatchExecutor(executor);
+            List<ProvisionResult> results = provisioner.findResources(requests);
+            Assert.assertEquals(2, results.size());
+            Assert.assertEquals(Arrays.asList(res1, res2), results.get(0).getResources());
+            Assert.assertEquals(Arrays.asList(res1), results.get(1).getResources());
+            Assert.assertEquals(res1, results.get(1).getRequirementMapping().get(req2));
+        } finally {
+            provisioner.setBatchExecutor(null);
+            executor.shutdown();
+        }
+
+        // The lookup of res1 is shared
+        provisioner.getMetrics().reset();
+        provisioner.findResources(requests);
+        Assert.assertEquals(2, provisioner.getMetrics().getLookupCount());
+    }
+
     @Test
     public void testPreferHigherVersion() {
         XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
@@ -160,4 +723,155 @@ public class ProvisionerTestCase extends AbstractProvisionerTest {
         Assert.assertEquals("One resource", 1, result.getResources().size());
         Assert.assertTrue("Nothing unsatisfied", result.getUnsatisfiedRequirements().isEmpty());
     }
+
+    @Test
+    public void testSharedRepositoryStorage() {
+        // The repository storage is modified without the provisioner seeing it
+        RepositoryStorage storage = getRepository().adapt(RepositoryStorage.class);
+        Assert.assertFalse("Storage not tracked", storage instanceof TrackingRepositoryStorage);
+        AbstractResourceProvisioner provisioner = (AbstractResourceProvisioner) getProvisioner();
+        Assert.assertNotNull("RepositoryIndex not null", provisioner.getRepositoryIndex());
+
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, provisioner.getRepositoryIndex().getSize());
+
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, provisioner.getResultCache().getHitCount());
+
+        // The modification is detected by the next call
+        XResource res2 = createResource("res1", "2.0.0");
+        storage.addResource(res2);
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+        Assert.assertEquals(1, provisioner.getResultCache().getHitCount());
+        Assert.assertEquals(2, provisioner.getRepositoryIndex().getSize());
+
+        storage.removeResource(res2);
+        req = createRequirement("res1");
+        result = findResources(Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+    }
+
+    @Test
+    public void testUntrackedRepositoryStorage() {
+        // A storage without an increment cannot be tracked
+        final RepositoryStorageFactory factory = new MemoryRepositoryStorage.Factory();
+        XPersistentRepository repository = new AbstractPersistentRepository(new RepositoryStorageFactory() {
+            @Override
+            public RepositoryStorage create(XRepository repo) {
+                return new UntrackedRepositoryStorage(factory.create(repo));
+            }
+        });
+        AbstractResourceProvisioner provisioner = new AbstractResourceProvisioner(new AbstractResolver(), repository);
+        Assert.assertNull("RepositoryIndex null", provisioner.getRepositoryIndex());
+
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        XResource res1 = createResource("res1", null);
+        storage.addResource(res1);
+        XRequirement req = createRequirement("res1");
+        ProvisionResult result = provisioner.findResources(getEnvironment(), Collections.singleton(req));
+        Assert.assertEquals(res1, result.getRequirementMapping().get(req));
+
+        XResource res2 = createResource("res1", "2.0.0");
+        storage.addResource(res2);
+        req = createRequirement("res1");
+        result = provisioner.findResources(getEnvironment(), Collections.singleton(req));
+        Assert.assertEquals(res2, result.getRequirementMapping().get(req));
+        Assert.assertEquals(0, provisioner.getResultCache().getHitCount());
+    }
+
+    static class UntrackedRepositoryStorage implements RepositoryStorage {
+
+        private final RepositoryStorage delegate;
+
+        UntrackedRepositoryStorage(RepositoryStorage delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public XRepository getRepository() {
+            return delegate.getRepository();
+        }
+
+        @Override
+        public RepositoryReader getRepositoryReader() {
+            final RepositoryReader reader = delegate.getRepositoryReader();
+            return new RepositoryReader() {
+
+                @Override
+                public Map<String, String> getRepositoryAttributes() {
+                    return Collections.emptyMap();
+                }
+
+                @Override
+                public XResource nextResource() {
+                    return reader.nextResource();
+                }
+
+                @Override
+                public void close() {
+                    reader.close();
+                }
+            };
+        }
+
+        @Override
+        public Collection<Capability> findProviders(Requirement req) {
+            return delegate.findProviders(req);
+        }
+
+        @Override
+        public XResource addResource(XResource res) {
+            return delegate.addResource(res);
+        }
+
+        @Override
+        public boolean removeResource(XResource res) {
+            return delegate.removeResource(res);
+        }
+    }
+
+    private String readContent(RepositoryContent content) throws IOException {
+        InputStream input = content.getContent();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] bytes = new byte[1024];
+            int len;
+            while ((len = input.read(bytes)) > 0) {
+                output.write(bytes, 0, len);
+            }
+            return new String(output.toByteArray(), "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    private RepositoryReader getResourceReader(final XResource res) {
+        return new RepositoryReader() {
+            private XResource next = res;
+
+            @Override
+            public Map<String, String> getRepositoryAttributes() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public XResource nextResource() {
+                XResource result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
 }
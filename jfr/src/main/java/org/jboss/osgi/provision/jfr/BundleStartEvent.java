@@ -0,0 +1,48 @@
+/*
+ * #%L
+ * JBossOSGi Provision: JFR
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The start of an installed bundle.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+@Name("org.jboss.osgi.provision.BundleStart")
+@Label("Bundle Start")
+@Category({ "JBossOSGi", "Provision" })
+@Description("The start of an installed bundle.")
+final class BundleStartEvent extends Event {
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Bundle Id")
+    long bundleId;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * JBossOSGi Provision: JFR
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.provision.jfr;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import jdk.jfr.Event;
+
+import org.jboss.osgi.provision.AbstractProvisionListener;
+import org.jboss.osgi.provision.ProvisionListener;
+import org.jboss.osgi.provision.ProvisionResult;
+import org.jboss.osgi.resolver.XEnvironment;
+import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.framework.Bundle;
+
+/**
+ * A {@link ProvisionListener} that records the phases of provisioning as Flight Recorder events.
+ *
+ * An event begins with the start of its phase and is committed at the end of the phase, which
+ * is reported on the same thread. The events of a thread are kept on a stack, because rounds
+ * are nested in their provisioning. Repository lookups are kept by requirement instead, because
+ * the lookups of a batch overlap.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class JfrProvisionListener extends AbstractProvisionListener {
+
+    private final ThreadLocal<Deque<Event>> events = new ThreadLocal<Deque<Event>>() {
+        @Override
+        protected Deque<Event> initialValue() {
+            return new ArrayDeque<Event>();
+        }
+    };
+
+    private final ThreadLocal<Map<XRequirement, RepositoryLookupEvent>> lookups = new ThreadLocal<Map<XRequirement, RepositoryLookupEvent>>() {
+        @Override
+        protected Map<XRequirement, RepositoryLookupEvent> initialValue() {
+            return new IdentityHashMap<XRequirement, RepositoryLookupEvent>();
+        }
+    };
+
+    @Override
+    public void provisionStarted(XEnvironment env, Set<XRequirement> reqs) {
+        begin(new ProvisionEvent());
+    }
+
+    @Override
+    public void provisionFinished(Set<XRequirement> reqs, ProvisionResult result, long nanos) {
+        ProvisionEvent event = end(ProvisionEvent.class);
+        if (event != null && event.shouldCommit()) {
+            event.requirements = reqs.toString();
+            event.failed = result == null;
+            if (result != null) {
+                event.resources = result.getResources().size();
+                event.unsatisfied = result.getUnsatisfiedRequirements().size();
+            }
+            event.commit();
+        }
+    }
+
+    @Override
+    public void roundStarted(int round, int frontier) {
+        begin(new ProvisionRoundEvent());
+    }
+
+    @Override
+    public void roundFinished(int round, int frontier, boolean resolverCalled, long nanos) {
+        ProvisionRoundEvent event = end(ProvisionRoundEvent.class);
+        if (event != null && event.shouldCommit()) {
+            event.round = round;
+            event.frontier = frontier;
+            event.resolverCalled = resolverCalled;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void repositoryLookupStarted(XRequirement req) {
+        RepositoryLookupEvent event = new RepositoryLookupEvent();
+        lookups.get().put(req, event);
+        event.begin();
+    }
+
+    @Override
+    public void repositoryLookupFinished(XRequirement req, int providers, long nanos) {
+        RepositoryLookupEvent event = lookups.get().remove(req);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.namespace = req.getNamespace();
+                event.requirement = req.toString();
+                event.providers = providers;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void delegateExpanded(XResource resource, XResource delegate) {
+        DelegateExpansionEvent event = new DelegateExpansionEvent();
+        if (event.shouldCommit()) {
+            event.resource = getIdentity(resource);
+            event.delegate = getIdentity(delegate);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void bundleInstalling(XResource resource) {
+        begin(new BundleInstallEvent());
+    }
+
+    @Override
+    public void bundleInstalled(XResource resource, Bundle bundle, long nanos) {
+        BundleInstallEvent event = end(BundleInstallEvent.class);
+        if (event != null && event.shouldCommit()) {
+            event.resource = resource.toString();
+            event.bundleId = bundle != null ? bundle.getBundleId() : -1;
+            event.failed = bundle == null;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void bundleStarting(XResource resource, Bundle bundle) {
+        begin(new BundleStartEvent());
+    }
+
+    @Override
+    public void bundleStarted(XResource resource, Bundle bundle, long nanos) {
+        BundleStartEvent event = end(BundleStartEvent.class);
+        if (event != null && event.shouldCommit()) {
+            event.resource = resource.toString();
+            event.bundleId = bundle.getBundleId();
+            event.failed = bundle.getState() != Bundle.ACTIVE && bundle.getState() != Bundle.STARTING;
+            event.commit();
+        }
+    }
+
+    private void begin(Event event) {
+        events.get().push(event);
+        event.begin();
+    }
+
+    // A phase that began before this listener was added has no event
+    private <T extends Event> T end(Class<T> type) {
+        Deque<Event> stack = events.get();
+        if (!type.isInstance(stack.peek()))
+            return null;
+        T event = type.cast(stack.pop());
+        event.end();
+        return event;
+    }
+
+    private String getIdentity(XResource resource) {
+        XIdentityCapability icap = resource.getIdentityCapability();
+        return icap != null ? icap.getSymbolicName() + ":" + icap.getVersion() : resource.toString();
+    }
+}
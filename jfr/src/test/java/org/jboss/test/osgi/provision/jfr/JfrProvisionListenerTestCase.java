@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * JBossOSGi Provision: JFR
+ * %%
+ * Copyright (C) 2013 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.provision.jfr;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.jboss.osgi.provision.jfr.JfrProvisionListener;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.namespace.IdentityNamespace;
+
+/**
+ * Test the Flight Recorder events of the {@link JfrProvisionListener}.
+ *
+ * @author agent@local
+ * @since 17-Oct-2026
+ */
+public class JfrProvisionListenerTestCase {
+
+    @Test
+    public void testRecordedEvents() throws Exception {
+        XResourceBuilder<XResource> cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1");
+        XResource res = cbuilder.getResource();
+        cbuilder = XResourceBuilderFactory.create();
+        cbuilder.addCapability(IdentityNamespace.IDENTITY_NAMESPACE, "res1.content");
+        XResource delegate = cbuilder.getResource();
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "res1").getRequirement();
+        Bundle bundle = createBundle(42, Bundle.ACTIVE);
+
+        JfrProvisionListener listener = new JfrProvisionListener();
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        File file = File.createTempFile("provision", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("org.jboss.osgi.provision.Provision");
+                recording.enable("org.jboss.osgi.provision.ProvisionRound");
+                recording.enable("org.jboss.osgi.provision.RepositoryLookup");
+                recording.enable("org.jboss.osgi.provision.DelegateExpansion");
+                recording.enable("org.jboss.osgi.provision.BundleInstall");
+                recording.enable("org.jboss.osgi.provision.BundleStart");
+                recording.start();
+
+                // A round that finishes without a start is not recorded
+                listener.roundFinished(0, 1, false, 0);
+                listener.provisionStarted(null, Collections.singleton(req));
+                listener.roundStarted(1, 1);
+                listener.repositoryLookupStarted(req);
+                Thread.sleep(10);
+                listener.repositoryLookupFinished(req, 1, 0);
+                listener.delegateExpanded(res, delegate);
+                listener.roundFinished(1, 1, true, 0);
+                listener.provisionFinished(Collections.singleton(req), null, 0);
+                listener.bundleInstalling(res);
+                listener.bundleInstalled(res, bundle, 0);
+                listener.bundleStarting(res, bundle);
+                listener.bundleStarted(res, bundle, 0);
+
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+            events.addAll(RecordingFile.readAllEvents(file.toPath()));
+        } finally {
+            file.delete();
+        }
+
+        RecordedEvent provision = getEvent(events, "org.jboss.osgi.provision.Provision");
+        Assert.assertTrue(provision.getBoolean("failed"));
+        RecordedEvent round = getEvent(events, "org.jboss.osgi.provision.ProvisionRound");
+        Assert.assertEquals(1, round.getInt("round"));
+        Assert.assertTrue(round.getBoolean("resolverCalled"));
+        Assert.assertTrue("Round took its time", round.getDuration().toMillis() >= 10);
+        Assert.assertFalse("Round within provision", round.getStartTime().isBefore(provision.getStartTime()));
+        Assert.assertFalse("Round within provision", round.getEndTime().isAfter(provision.getEndTime()));
+        RecordedEvent lookup = getEvent(events, "org.jboss.osgi.provision.RepositoryLookup");
+        Assert.assertEquals(IdentityNamespace.IDENTITY_NAMESPACE, lookup.getString("namespace"));
+        Assert.assertEquals(1, lookup.getInt("providers"));
+        Assert.assertTrue("Lookup took its time", lookup.getDuration().toMillis() >= 10);
+        RecordedEvent expansion = getEvent(events, "org.jboss.osgi.provision.DelegateExpansion");
+        Assert.assertEquals("res1:0.0.0", expansion.getString("resource"));
+        Assert.assertEquals("res1.content:0.0.0", expansion.getString("delegate"));
+        Assert.assertEquals(42, getEvent(events, "org.jboss.osgi.provision.BundleInstall").getLong("bundleId"));
+        Assert.assertFalse(getEvent(events, "org.jboss.osgi.provision.BundleStart").getBoolean("failed"));
+    }
+
+    private RecordedEvent getEvent(List<RecordedEvent> events, String name) {
+        RecordedEvent result = null;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                Assert.assertNull("Single event: " + name, result);
+                result = event;
+            }
+        }
+        Assert.assertNotNull("Event recorded: " + name, result);
+        return result;
+    }
+
+    private Bundle createBundle(final long bundleId, final int state) {
+        return (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Bundle.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getBundleId"))
+                    return bundleId;
+                if (method.getName().equals("getState"))
+                    return state;
+                return null;
+            }
+        });
+    }
+}